@@ -0,0 +1,127 @@
+package uk.gov.education.honours;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+// Sends the same 64 MB file to a local socket the way uploads used to (4 KB copy loop), with the 64 KB stream and
+// channel copies, and with the mapped-file path. Each operation is one whole file, so MB/s is 64 times ops/s.
+//
+// Needs the jmh-core and jmh-generator-annprocess libraries, with annotation processing enabled for the module.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileTransferBenchmark {
+    private static final int FILE_SIZE = 64 * 1024 * 1024;
+
+    private interface Sender {
+        void send(OutputStream out) throws IOException;
+    }
+
+    private Path file;
+    private ExecutorService sink;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("transfer", ".bin");
+        byte[] block = new byte[1024 * 1024];
+        for (int i = 0; i < block.length; i++) block[i] = (byte) i;
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (int i = 0; i < FILE_SIZE / block.length; i++) out.write(block);
+        }
+        sink = Executors.newSingleThreadExecutor();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        sink.shutdownNow();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public long copyLoop4k() throws Exception {
+        return send(out -> {
+            try (InputStream in = new FileInputStream(file.toFile())) {
+                byte[] buffer = new byte[4096];
+                int bytesRead;
+                while ((bytesRead = in.read(buffer)) != -1) out.write(buffer, 0, bytesRead);
+            }
+        });
+    }
+
+    @Benchmark
+    public long streamCopy() throws Exception {
+        return send(out -> {
+            try (InputStream in = new FileInputStream(file.toFile())) {
+                FileUploader.copy(in, out);
+            }
+        });
+    }
+
+    @Benchmark
+    public long channelCopy() throws Exception {
+        return send(out -> {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                FileUploader.copy(channel, 0, channel.size(), out);
+            }
+        });
+    }
+
+    @Benchmark
+    public long mappedTransfer() throws Exception {
+        return send(out -> {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                FileUploader.transfer(channel, out);
+            }
+        });
+    }
+
+    // sends the file over loopback and returns the bytes that arrived, failing unless every one did
+    private long send(Sender sender) throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Future<Long> received = sink.submit(() -> {
+                try (Socket socket = server.accept(); InputStream in = socket.getInputStream()) {
+                    byte[] buffer = new byte[64 * 1024];
+                    long total = 0;
+                    int read;
+                    while ((read = in.read(buffer)) != -1) total += read;
+                    return total;
+                }
+            });
+
+            try (Socket socket = new Socket(server.getInetAddress(), server.getLocalPort());
+                 OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 8192)) {
+                sender.send(out);
+            }
+
+            long total = received.get();
+            if (total != FILE_SIZE) throw new IllegalStateException("Only " + total + " of " + FILE_SIZE + " bytes arrived");
+            return total;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(FileTransferBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,89 @@
+package uk.gov.education.honours;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Throughput of each stage of nomination parsing on synthetic pdfs from SMALL to HUGE. Run main() (or the JMH
+// runner with -prof gc) to get the allocation rate per stage alongside: gc.alloc.rate.norm is bytes per operation.
+//
+// The two getWordsFromPdf benchmarks time their stages through a Metrics as the uploader does, so every operation
+// also creates a jfr StageEvent per stage (pdf.load plus pdf.dom and pdf.xpath, or pdf.extract) and hands the
+// timings to a no-op sink. That is part of what they measure, allocations included, but it is a few objects
+// against a whole pdf. The other benchmarks call the parsing methods directly, outside any span.
+//
+// Needs the jmh-core and jmh-generator-annprocess libraries, with annotation processing enabled for the module.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class ParsingBenchmark {
+    // a SyntheticNominations.Size; a String because jmh's generated code lives in another package
+    @Param({"SMALL", "MEDIUM", "LARGE", "HUGE"})
+    public String size;
+
+    private final Metrics metrics = new Metrics();
+    private Path pdf;
+    private String[] styles;
+    private List<Word> words;
+    private List<Phrase> phrases;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        pdf = SyntheticNominations.write(SyntheticNominations.Size.valueOf(size), Files.createTempFile("nomination-" + size, ".pdf"));
+        words = NominationUploader.getWordsFromPdf(pdf.toString(), metrics);
+        phrases = NominationUploader.bunchWordsIntoPhrases(words);
+        styles = SyntheticNominations.styles(words.size());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(pdf);
+    }
+
+    @Benchmark
+    public Object getWordsFromPdf() throws Exception {
+        return NominationUploader.getWordsFromPdf(pdf.toString(), metrics);
+    }
+
+    @Benchmark
+    public Object getWordsFromPdfPositional() throws IOException {
+        return PositionalTextExtractor.getWordsFromPdf(pdf.toString(), metrics);
+    }
+
+    // one operation parses as many style attributes as the pdf has words
+    @Benchmark
+    public void wordParamsParse(Blackhole blackhole) {
+        for (String style : styles) blackhole.consume(WordParams.parse(style));
+    }
+
+    @Benchmark
+    public Object bunchWordsIntoPhrases() {
+        return NominationUploader.bunchWordsIntoPhrases(words);
+    }
+
+    @Benchmark
+    public Object structurePhrasesIntoSections() {
+        return NominationUploader.structurePhrasesIntoSections(phrases);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ParsingBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
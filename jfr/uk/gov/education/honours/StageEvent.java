@@ -0,0 +1,34 @@
+package uk.gov.education.honours;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// Flight Recorder event for one pipeline stage. This source root is the only code that needs jdk.jfr to compile, so
+// src still builds for any Java 8. Metrics finds Recorder by name and only once it has checked that jdk.jfr is
+// present; a build without this root just has no stage events.
+@Name("uk.gov.education.honours.Stage")
+@Label("Honours pipeline stage")
+@Category("Honours")
+class StageEvent extends Event {
+    @Label("Stage")
+    String stage;
+
+    static class Recorder implements Metrics.StageRecorder {
+        @Override
+        public Object begin(String stage) {
+            StageEvent event = new StageEvent();
+            event.stage = stage;
+            event.begin();
+            return event;
+        }
+
+        @Override
+        public void end(Object event) {
+            StageEvent stageEvent = (StageEvent) event;
+            stageEvent.end();
+            if (stageEvent.shouldCommit()) stageEvent.commit();
+        }
+    }
+}
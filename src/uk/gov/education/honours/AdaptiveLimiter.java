@@ -0,0 +1,70 @@
+package uk.gov.education.honours;
+
+import java.io.InterruptedIOException;
+
+// Caps the requests in flight to one host and adjusts the cap AIMD-style: it grows by about one per round of
+// requests while they succeed at close to the best latency seen, and halves when the host signals overload
+// (429, 5xx or a timeout). A burst of failures from requests that were all in flight together counts as one
+// signal, so the cap isn't halved once per request.
+class AdaptiveLimiter {
+    private static final double LATENCY_TOLERANCE = 2.0;
+    private static final long MIN_DECREASE_INTERVAL_NANOS = 100_000_000L;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private double limit;
+    private int inFlight = 0;
+    private long baselineNanos = Long.MAX_VALUE;
+    private long smoothedNanos = 0;
+    private long lastDecreaseAt = System.nanoTime() - Long.MAX_VALUE / 2;
+
+    AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit) {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    synchronized void acquire() throws InterruptedIOException {
+        try {
+            while (inFlight >= (int) limit) wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a request slot");
+        }
+        inFlight++;
+    }
+
+    // latencyNanos is how long the server took to respond once the request was sent
+    synchronized void onSuccess(long latencyNanos) {
+        // the baseline is the fastest response seen, drifting up slowly so a lasting slowdown is learned again
+        baselineNanos = latencyNanos < baselineNanos ? latencyNanos : baselineNanos + (latencyNanos - baselineNanos) / 100;
+        smoothedNanos = smoothedNanos == 0 ? latencyNanos : smoothedNanos + (latencyNanos - smoothedNanos) / 8;
+
+        // a slow response is a hint of queueing at the server, so the cap stays where it is
+        if (latencyNanos <= baselineNanos * LATENCY_TOLERANCE) limit = Math.min(maxLimit, limit + 1 / limit);
+        release();
+    }
+
+    synchronized void onOverload() {
+        long now = System.nanoTime();
+        if (now - lastDecreaseAt >= Math.max(MIN_DECREASE_INTERVAL_NANOS, smoothedNanos)) {
+            limit = Math.max(minLimit, limit / 2);
+            lastDecreaseAt = now;
+        }
+        release();
+    }
+
+    // for outcomes that say nothing about load, e.g. a 404
+    synchronized void onIgnore() {
+        release();
+    }
+
+    synchronized int limit() {
+        return (int) limit;
+    }
+
+    private void release() {
+        inFlight--;
+        notifyAll();
+    }
+}
@@ -0,0 +1,111 @@
+package uk.gov.education.honours;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+// Declares how Honours record fields map to spreadsheet columns. The spec is compiled once into parallel arrays of
+// headers and accessors, so mapping a record is a single loop. Accessors only read the record, so chunks of
+// records can be mapped on several cores before the rows are written to the sheet one by one.
+class ExportColumns {
+    interface Accessor {
+        String get(ExportRow row);
+    }
+
+    static class Column {
+        final String header;
+        final Accessor accessor;
+
+        Column(String header, Accessor accessor) {
+            this.header = header;
+            this.accessor = accessor;
+        }
+    }
+
+    // a record being mapped, with the derived values several columns share worked out at most once
+    static class ExportRow {
+        final HonoursRecord item;
+        private String[] addressLines = null;
+
+        ExportRow(HonoursRecord item) {
+            this.item = item;
+        }
+
+        String[] addressLines() {
+            if (addressLines == null) addressLines = ((String) item.getOrDefault("Street", "")).split("\n");
+            return addressLines;
+        }
+    }
+
+    private final String[] headers;
+    private final Accessor[] accessors;
+
+    ExportColumns(Column... columns) {
+        headers = new String[columns.length];
+        accessors = new Accessor[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            headers[i] = columns[i].header;
+            accessors[i] = columns[i].accessor;
+        }
+    }
+
+    String[] headers() {
+        return headers.clone();
+    }
+
+    String[] map(HonoursRecord item) {
+        ExportRow row = new ExportRow(item);
+        String[] values = new String[accessors.length];
+        for (int i = 0; i < accessors.length; i++) values[i] = accessors[i].get(row);
+        return values;
+    }
+
+    // maps a chunk of records in parallel, keeping their order
+    List<String[]> mapAll(List<HonoursRecord> items) {
+        return items.parallelStream().map(this::map).collect(Collectors.toList());
+    }
+
+    static Column column(String header, Accessor accessor) {
+        return new Column(header, accessor);
+    }
+
+    static Accessor constant(String value) {
+        return row -> value;
+    }
+
+    static Accessor text(String field) {
+        return row -> (String) row.item.getOrDefault(field, "");
+    }
+
+    static Accessor wholeNumber(String field) {
+        return row -> Integer.toString(((Double) row.item.getOrDefault(field, 0.0)).intValue());
+    }
+
+    // "Y" if the field is "Yes", "N" otherwise
+    static Accessor yesNo(String field) {
+        return row -> Objects.equals(row.item.getOrDefault(field, ""), "Yes") ? "Y" : "N";
+    }
+
+    static Accessor onlyIf(String field, String value, Accessor accessor) {
+        return row -> Objects.equals(row.item.getOrDefault(field, ""), value) ? accessor.get(row) : "";
+    }
+
+    static Accessor unless(String field, String value, Accessor accessor) {
+        return row -> Objects.equals(row.item.getOrDefault(field, ""), value) ? "" : accessor.get(row);
+    }
+
+    private static final Pattern YEAR = Pattern.compile("[0-9]{4}");
+
+    static Accessor year(String field) {
+        return row -> {
+            Matcher year = YEAR.matcher((String) row.item.getOrDefault(field, ""));
+            return year.find() ? year.group() : "";
+        };
+    }
+
+    static Accessor addressLine(int line, int minLines) {
+        return row -> row.addressLines().length >= minLines ? row.addressLines()[line] : "";
+    }
+}
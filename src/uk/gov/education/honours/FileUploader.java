@@ -1,112 +1,414 @@
 package uk.gov.education.honours;
 
+import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
 import java.io.*;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 class FileUploader {
+    private static final String LINE_FEED = "\r\n";
+    private static final int UPLOAD_BUFFER_SIZE = 64 * 1024;
+    private static final long MAPPED_REGION_SIZE = 16 * 1024 * 1024;
+    // the upload api hands out one presigned url per 5 MiB of file
+    private static final long PART_SIZE = 5 * 1024 * 1024;
+
     private final String fileApiKey;
+    private final HttpTransport transport;
+    private final Metrics metrics;
+    private String baseUrl = "https://upload.kissflow.com";
+    private UploadJournal journal = null;
+    private long multipartThreshold = 50L * 1024 * 1024;
+    private int multipartConcurrency = 4;
+    private boolean mappedTransfer = false;
+    // cdn urls of files being uploaded right now, by sha256, so nominations sharing a file send it once between them
+    private final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
 
     FileUploader(String fileApiKey) {
+        this(fileApiKey, new HttpTransport(), new Metrics());
+    }
+
+    FileUploader(String fileApiKey, HttpTransport transport, Metrics metrics) {
         this.fileApiKey = fileApiKey;
+        this.transport = transport;
+        this.metrics = metrics;
+    }
+
+    void setBaseUrl(String baseUrl) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
     }
 
+    void setJournal(UploadJournal journal) {
+        this.journal = journal;
+    }
+
+    // files of at least thresholdBytes go up in parts, up to `concurrency` parts at a time
+    void setMultipartUpload(long thresholdBytes, int concurrency) {
+        this.multipartThreshold = thresholdBytes;
+        this.multipartConcurrency = Math.max(1, concurrency);
+    }
+
+    // Maps files into memory to send them instead of copying them through a 64 KB buffer. Off by default: the socket
+    // side is a copy either way, mapping measured slower than the buffer over loopback, and on Windows a mapped file
+    // can't be deleted or replaced until the mapping is garbage collected.
+    void setMappedTransfer(boolean mappedTransfer) {
+        this.mappedTransfer = mappedTransfer;
+    }
 
     String sendFile(String pathToFile, String filename) throws Exception {
-        File file = new File(pathToFile);
-        return sendFile(new FileInputStream(file), Files.probeContentType(file.toPath()), filename);
+        return sendFiles(Collections.singletonList(new NominationUploader.FileNameAndPath(filename, pathToFile)), 1).get(0);
+    }
+
+    // Uploads all of a nomination's files, up to maxConcurrentUploads at once, then puts the new ones in one group so
+    // that all their cdn urls come back from a single request. The urls are in the same order as the files. A file
+    // another call is already uploading isn't sent again; this call waits for that upload's url instead.
+    List<String> sendFiles(List<NominationUploader.FileNameAndPath> files, int maxConcurrentUploads) throws Exception {
+        List<Sent> sent = new ArrayList<>();
+        Claims claims = new Claims();
+        try {
+            ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(maxConcurrentUploads, files.size())));
+            try {
+                List<Future<Sent>> futures = new ArrayList<>();
+                for (NominationUploader.FileNameAndPath fnap : files) {
+                    futures.add(executor.submit(() -> upload(new File(fnap.path), fnap.name, claims)));
+                }
+
+                for (Future<Sent> future : futures) {
+                    try {
+                        sent.add(future.get());
+                    } catch (ExecutionException e) {
+                        throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                    }
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+
+            List<String> fileIds = new ArrayList<>();
+            for (Sent file : sent) {
+                if (file.fileId != null) fileIds.add(file.fileId);
+            }
+
+            if (!fileIds.isEmpty()) {
+                String groupUrl = groupUrl(fileIds);
+                int nth = 0;
+                for (Sent file : sent) {
+                    if (file.fileId == null) continue;
+                    file.url = groupUrl + "/nth/" + nth++ + "/";
+                    if (file.sha256 != null) {
+                        journal.recordFileUrl(file.sha256, file.url);
+                        claims.resolve(file.sha256, file.url);
+                    }
+                }
+            }
+
+            // only waited for once this call's own uploads are settled, so two calls waiting on each other can't stall
+            for (Sent file : sent) {
+                if (file.pending == null) continue;
+                try {
+                    file.url = file.pending.get();
+                } catch (ExecutionException e) {
+                    throw new IOException("Another upload of the same file failed", e.getCause());
+                }
+            }
+        } finally {
+            claims.close();
+        }
+
+        List<String> urls = new ArrayList<>();
+        for (Sent file : sent) urls.add(file.url);
+        return urls;
     }
 
+    // the stream's length isn't known up front, so it is sent chunked
     String sendFile(InputStream fileStream, String contentType, String filename) throws Exception {
-        String fileId = uploadFile(fileStream, contentType, filename);
-        return getFileUrl(fileId);
+        String fileId;
+        try (InputStream in = fileStream) {
+            fileId = uploadFile(out -> copy(in, out), -1, contentType, filename);
+        }
+        return groupUrl(Collections.singletonList(fileId)) + "/nth/0/";
     }
 
-    private String getFileUrl(String fileId) throws IOException, ParseException {
-        String url = "https://upload.kissflow.com/group/";
-        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    // a file either already on the cdn (url set), just uploaded and not yet in a group (fileId set) or being uploaded
+    // by another call (pending set)
+    private static class Sent {
+        final String sha256;
+        final String fileId;
+        final CompletableFuture<String> pending;
+        String url;
 
-        connection.setRequestProperty("User-Agent", "Mozilla/5.0 (Windows NT 10.0; WOW64; rv:55.0) Gecko/20100101 Firefox/55.0");
+        Sent(String sha256, String fileId, String url) {
+            this(sha256, fileId, url, null);
+        }
 
-        // Indicate a POST request
-        connection.setRequestMethod("POST");
-        connection.setDoOutput(true);
-        connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded; charset=UTF-8");
+        Sent(String sha256, String fileId, String url, CompletableFuture<String> pending) {
+            this.sha256 = sha256;
+            this.fileId = fileId;
+            this.url = url;
+            this.pending = pending;
+        }
+    }
 
-        DataOutputStream output = new DataOutputStream(connection.getOutputStream());
-        output.writeBytes(
-                String.format("pub_key=%s&%s=%s", URLEncoder.encode(fileApiKey, "UTF-8"), URLEncoder.encode("files[]", "UTF-8"), URLEncoder.encode(fileId, "UTF-8"))
-        );
-        output.close();
+    // The files one sendFiles call has taken on in inFlight. Whatever it hasn't resolved by the time it closes failed,
+    // and the calls waiting on it are told so.
+    private class Claims {
+        private final Map<String, CompletableFuture<String>> owned = new HashMap<>();
+        private boolean closed = false;
+
+        // null if this call now owns the file, otherwise the url another upload of it will give
+        synchronized CompletableFuture<String> claim(String sha256) throws InterruptedIOException {
+            if (closed) throw new InterruptedIOException("Upload abandoned");
+            CompletableFuture<String> claim = new CompletableFuture<>();
+            CompletableFuture<String> existing = inFlight.putIfAbsent(sha256, claim);
+            if (existing != null) return existing;
+            owned.put(sha256, claim);
+            return null;
+        }
 
-        JSONObject parse = (JSONObject) new JSONParser().parse(new InputStreamReader(connection.getInputStream()));
+        synchronized void resolve(String sha256, String url) {
+            CompletableFuture<String> claim = owned.remove(sha256);
+            if (claim == null) return;
+            inFlight.remove(sha256, claim);
+            claim.complete(url);
+        }
 
-        return parse.get("cdn_url") + "/nth/0/";
+        synchronized void close() {
+            closed = true;
+            for (Map.Entry<String, CompletableFuture<String>> entry : owned.entrySet()) {
+                inFlight.remove(entry.getKey(), entry.getValue());
+                entry.getValue().completeExceptionally(new IOException("Upload abandoned"));
+            }
+            owned.clear();
+        }
     }
 
-    private String uploadFile(InputStream inputStream, String contentType, String filename) throws IOException, ParseException {
-        // Task attachments endpoint
-        String url = "https://upload.kissflow.com/base/?jsonerrors=1";
+    @SuppressWarnings("try")
+    private Sent upload(File file, String filename, Claims claims) throws IOException, ParseException {
+        // files already on the cdn, e.g. from an earlier attempt or another nomination, are not sent again
+        String sha256 = journal == null ? null : ContentHash.sha256Hex(file.toPath());
+        if (sha256 != null) {
+            CompletableFuture<String> pending = claims.claim(sha256);
+            if (pending != null) {
+                metrics.count("upload.shared", 1);
+                return new Sent(sha256, null, null, pending);
+            }
+            String url = journal.fileUrl(sha256);
+            if (url != null) {
+                metrics.count("upload.journal.hits", 1);
+                claims.resolve(sha256, url);
+                return new Sent(sha256, null, url);
+            }
+        }
 
-        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+             Metrics.Span ignored = metrics.time("upload.file")) {
+            long size = channel.size();
+            metrics.count("upload.files", 1);
+            metrics.count("upload.bytes", size);
+            String contentType = Files.probeContentType(file.toPath());
+            String fileId = size >= multipartThreshold
+                    ? uploadMultipart(channel, size, contentType, filename)
+                    : uploadFile(out -> send(channel, 0, size, out), size, contentType, filename);
+            return new Sent(sha256, fileId, null);
+        }
+    }
 
-        connection.setRequestProperty("User-Agent", "Mozilla/5.0 (Windows NT 10.0; WOW64; rv:55.0) Gecko/20100101 Firefox/55.0");
+    // the cdn url of a new group holding the given files, in order
+    @SuppressWarnings("try")
+    private String groupUrl(List<String> fileIds) throws IOException, ParseException {
+        String[] form = new String[2 + 2 * fileIds.size()];
+        form[0] = "pub_key";
+        form[1] = fileApiKey;
+        for (int i = 0; i < fileIds.size(); i++) {
+            form[2 + 2 * i] = "files[]";
+            form[3 + 2 * i] = fileIds.get(i);
+        }
 
-        // Indicate a POST request
-        connection.setDoOutput(true);
+        try (Metrics.Span ignored = metrics.time("upload.group")) {
+            return (String) postForm(baseUrl + "/group/", form).get("cdn_url");
+        }
+    }
 
-        String boundary = Long.toHexString(System.currentTimeMillis());
-        connection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
+    // Starts a multipart upload, PUTs the parts to the presigned urls it returns, several at once, and completes it.
+    // A failed part is retried on its own; the upload only fails if one part fails every attempt.
+    private String uploadMultipart(FileChannel channel, long size, String contentType, String filename) throws IOException, ParseException {
+        JSONObject start = postForm(baseUrl + "/multipart/start/",
+                "UPLOADCARE_PUB_KEY", fileApiKey,
+                "filename", filename,
+                "size", Long.toString(size),
+                "content_type", contentType == null ? "application/octet-stream" : contentType,
+                "UPLOADCARE_STORE", "auto");
+
+        JSONArray parts = (JSONArray) start.get("parts");
+        String uuid = (String) start.get("uuid");
+        if (parts == null || uuid == null || parts.size() != (size + PART_SIZE - 1) / PART_SIZE) {
+            throw new IOException("Unexpected response starting multipart upload of " + filename + ": " + start.toJSONString());
+        }
 
-        PrintWriter writer = null;
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(multipartConcurrency, parts.size()));
         try {
-            OutputStream outputStream = connection.getOutputStream();
-            writer = new PrintWriter(new OutputStreamWriter(outputStream, "UTF-8"));
-            //String fileName = theFile.getName();
-
-            String LINE_FEED = "\r\n";
-            writer.append("--").append(boundary).append(LINE_FEED);
-            writer.append("Content-Disposition: form-data; name=\"UPLOADCARE_PUB_KEY\"").append(LINE_FEED).append(LINE_FEED);
-            writer.append(fileApiKey).append(LINE_FEED);
-
-            writer.append("--").append(boundary).append(LINE_FEED);
-            writer.append("Content-Disposition: form-data; name=\"UPLOADCARE_STORE\"").append(LINE_FEED).append(LINE_FEED);
-            writer.append("auto").append(LINE_FEED);
-
-            writer.append("--").append(boundary).append(LINE_FEED);
-            writer.append("Content-Disposition: form-data; name=\"file\"; filename=\"").append(filename).append("\"").append(LINE_FEED);
-            writer.append("Content-Type: ").append(contentType).append(LINE_FEED);
-            writer.append(LINE_FEED);
-            writer.flush();
-
-            byte[] buffer = new byte[4096];
-            int bytesRead;
-            while ((bytesRead = inputStream.read(buffer)) != -1) {
-                outputStream.write(buffer, 0, bytesRead);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < parts.size(); i++) {
+                String partUrl = (String) parts.get(i);
+                long position = i * PART_SIZE;
+                long length = Math.min(PART_SIZE, size - position);
+                futures.add(executor.submit(() -> {
+                    uploadPart(partUrl, channel, position, length);
+                    return null;
+                }));
             }
-            outputStream.flush();
-            inputStream.close();
 
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                    throw new IOException("Uploading part of " + filename + " failed", e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted uploading " + filename);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
 
-            writer.append(LINE_FEED);
-            writer.append("--").append(boundary).append("--").append(LINE_FEED);
-            writer.append(LINE_FEED);
-            writer.flush();
-            writer.close();
-        } catch (Exception ignored) {
+        return (String) postForm(baseUrl + "/multipart/complete/", "UPLOADCARE_PUB_KEY", fileApiKey, "uuid", uuid).get("uuid");
+    }
 
-        } finally {
-            if (writer != null) writer.close();
+    // PUT is idempotent, so the transport retries a failed part on its own
+    @SuppressWarnings("try")
+    private void uploadPart(String partUrl, FileChannel channel, long position, long length) throws IOException, ParseException {
+        try (Metrics.Span ignored = metrics.time("upload.part")) {
+            transport.send(partUrl, "PUT", connection -> {
+                connection.setDoOutput(true);
+                connection.setRequestProperty("Content-Type", "application/octet-stream");
+                connection.setFixedLengthStreamingMode(length);
+                try (OutputStream out = connection.getOutputStream()) {
+                    send(channel, position, length, out);
+                }
+            }, HttpTransport.discard());
         }
+    }
+
+    private JSONObject postForm(String url, String... namesAndValues) throws IOException, ParseException {
+        StringBuilder form = new StringBuilder();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            if (form.length() > 0) form.append('&');
+            form.append(URLEncoder.encode(namesAndValues[i], "UTF-8")).append('=').append(URLEncoder.encode(namesAndValues[i + 1], "UTF-8"));
+        }
+
+        return transport.send(url, "POST", HttpTransport.body("application/x-www-form-urlencoded; charset=UTF-8", form.toString()),
+                response -> (JSONObject) new JSONParser().parse(HttpTransport.text(response)));
+    }
+
+    // Streams the multipart body straight to the socket: with a known length as a fixed Content-Length, otherwise
+    // chunked. Without either HttpURLConnection buffers the whole request in memory to work out its length.
+    private String uploadFile(Body body, long length, String contentType, String filename) throws IOException, ParseException {
+        String boundary = Long.toHexString(System.currentTimeMillis());
+        byte[] head = multipartHead(boundary, contentType, filename);
+        byte[] tail = (LINE_FEED + "--" + boundary + "--" + LINE_FEED + LINE_FEED).getBytes(StandardCharsets.UTF_8);
+
+        // Task attachments endpoint
+        return transport.send(baseUrl + "/base/?jsonerrors=1", "POST", connection -> {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
+            if (length >= 0) {
+                connection.setFixedLengthStreamingMode(head.length + length + tail.length);
+            } else {
+                connection.setChunkedStreamingMode(UPLOAD_BUFFER_SIZE);
+            }
+
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(head);
+                body.writeTo(out);
+                out.write(tail);
+            }
+        }, response -> (String) ((JSONObject) new JSONParser().parse(HttpTransport.text(response))).get("file"));
+    }
+
+    private interface Body {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[UPLOAD_BUFFER_SIZE];
+        int bytesRead;
+        while ((bytesRead = in.read(buffer)) != -1) {
+            out.write(buffer, 0, bytesRead);
+        }
+    }
+
+    private void send(FileChannel channel, long position, long count, OutputStream out) throws IOException {
+        if (mappedTransfer) transfer(channel, position, count, out); else copy(channel, position, count, out);
+    }
+
+    // Copies part of a file through a 64 KB buffer. Reads are positional, so the parts of a multipart upload can be
+    // sent from the same channel at once.
+    static void copy(FileChannel channel, long position, long count, OutputStream out) throws IOException {
+        byte[] buffer = new byte[UPLOAD_BUFFER_SIZE];
+        ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+        long end = position + count;
+        for (long at = position; at < end; ) {
+            wrapped.clear().limit((int) Math.min(buffer.length, end - at));
+            int read = channel.read(wrapped, at);
+            if (read < 0) throw new EOFException("File ended " + (end - at) + " bytes short");
+            out.write(buffer, 0, read);
+            at += read;
+        }
+    }
+
+    // Sends a local file by mapping it a region at a time, so its content is read by the os page cache rather than
+    // copied into a heap buffer first. The connection's stream isn't a socket channel (and TLS encrypts in the
+    // jvm anyway), so the final hop is still a copy; only the file side is zero-copy.
+    static void transfer(FileChannel channel, OutputStream out) throws IOException {
+        transfer(channel, 0, channel.size(), out);
+    }
+
+    static void transfer(FileChannel channel, long position, long count, OutputStream out) throws IOException {
+        WritableByteChannel target = Channels.newChannel(out);
+        long end = position + count;
+        for (long at = position; at < end; at += MAPPED_REGION_SIZE) {
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, at, Math.min(MAPPED_REGION_SIZE, end - at));
+            while (region.hasRemaining()) target.write(region);
+        }
+    }
+
+    private byte[] multipartHead(String boundary, String contentType, String filename) {
+        StringBuilder head = new StringBuilder();
+        head.append("--").append(boundary).append(LINE_FEED);
+        head.append("Content-Disposition: form-data; name=\"UPLOADCARE_PUB_KEY\"").append(LINE_FEED).append(LINE_FEED);
+        head.append(fileApiKey).append(LINE_FEED);
 
-        JSONObject parse = (JSONObject) new JSONParser().parse(new InputStreamReader(connection.getInputStream()));
+        head.append("--").append(boundary).append(LINE_FEED);
+        head.append("Content-Disposition: form-data; name=\"UPLOADCARE_STORE\"").append(LINE_FEED).append(LINE_FEED);
+        head.append("auto").append(LINE_FEED);
 
-        return (String) parse.get("file");
+        head.append("--").append(boundary).append(LINE_FEED);
+        head.append("Content-Disposition: form-data; name=\"file\"; filename=\"").append(filename).append("\"").append(LINE_FEED);
+        head.append("Content-Type: ").append(contentType == null ? "application/octet-stream" : contentType).append(LINE_FEED);
+        head.append(LINE_FEED);
+        return head.toString().getBytes(StandardCharsets.UTF_8);
     }
 }
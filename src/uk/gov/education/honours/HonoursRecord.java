@@ -0,0 +1,87 @@
+package uk.gov.education.honours;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// One record of the Honours process, holding only the fields the exports and imports read. Values keep the types
+// json-simple gives them (String, Long, Double, Boolean); fields whose value is an object or array are only
+// recorded as present, since all we ask of them is containsKey.
+class HonoursRecord {
+    static final String[] FIELDS = {
+            "Id",
+            "Assigned To",
+            "Assigned To-Department Shortlist",
+            "Assigned To-Directorate Shortlist",
+            "Country",
+            "County",
+            "Date_Leaving_Post",
+            "Date_of_Birth",
+            "Departmental_shortlist",
+            "Directorate",
+            "Directorate_shortlist",
+            "Ethnic_Group",
+            "Ethnic_Group_",
+            "First_Name",
+            "Gender",
+            "Is_Date_of_Birth_approximate",
+            "Is_this_a_state_nomination",
+            "Last_Name",
+            "Long_citation",
+            "Nationality",
+            "Nomination_Type",
+            "PostNominals",
+            "Postcode",
+            "Preferrred_Names",
+            "Previous_HonoursRecommendations",
+            "Proposed_Award",
+            "Proposed_Category",
+            "Proposed_Committee",
+            "Region",
+            "Round",
+            "Secure_Address",
+            "Short_citation",
+            "Street",
+            "Telephone",
+            "Title",
+            "Total_Length_Of_Service",
+            "Town",
+            "Voluntary_work",
+            "Years"
+    };
+
+    static final Object NESTED = new Object();
+
+    private static final Map<String, Integer> fieldIndex = new HashMap<>();
+    static {
+        for (int i = 0; i < FIELDS.length; i++) fieldIndex.put(FIELDS[i], i);
+    }
+
+    private final Object[] values = new Object[FIELDS.length];
+    private final boolean[] present = new boolean[FIELDS.length];
+
+    // index of a field in FIELDS, or -1 if records don't keep it
+    static int indexOf(String field) {
+        Integer index = fieldIndex.get(field);
+        return index == null ? -1 : index;
+    }
+
+    void set(int index, Object value) {
+        values[index] = value;
+        present[index] = true;
+    }
+
+    Object get(String field) {
+        int index = indexOf(field);
+        return index < 0 ? null : values[index];
+    }
+
+    Object getOrDefault(String field, Object defaultValue) {
+        int index = indexOf(field);
+        return index < 0 || !present[index] ? defaultValue : values[index];
+    }
+
+    boolean containsKey(String field) {
+        int index = indexOf(field);
+        return index >= 0 && present[index];
+    }
+}
@@ -0,0 +1,89 @@
+package uk.gov.education.honours;
+
+import org.json.simple.parser.ContentHandler;
+
+import java.io.IOException;
+
+// Turns a json array of Honours records into HonoursRecords one at a time as json-simple reports parse events, so
+// only the record being read is held in memory. Fields HonoursRecord doesn't keep are skipped without being built.
+class HonoursRecordParser implements ContentHandler {
+    interface RecordHandler {
+        void handle(HonoursRecord record) throws IOException;
+    }
+
+    private final RecordHandler handler;
+    private int depth = 0;
+    private HonoursRecord current = null;
+    private int currentField = -1;
+    private int count = 0;
+
+    HonoursRecordParser(RecordHandler handler) {
+        this.handler = handler;
+    }
+
+    int count() {
+        return count;
+    }
+
+    @Override
+    public void startJSON() {
+    }
+
+    @Override
+    public void endJSON() {
+    }
+
+    @Override
+    public boolean startObject() {
+        depth++;
+        if (depth == 2) current = new HonoursRecord();
+        else if (depth == 3) markNested();
+        return true;
+    }
+
+    @Override
+    public boolean endObject() throws IOException {
+        if (depth == 2) {
+            handler.handle(current);
+            current = null;
+            count++;
+        }
+        depth--;
+        return true;
+    }
+
+    @Override
+    public boolean startObjectEntry(String key) {
+        if (depth == 2) currentField = HonoursRecord.indexOf(key);
+        return true;
+    }
+
+    @Override
+    public boolean endObjectEntry() {
+        if (depth == 2) currentField = -1;
+        return true;
+    }
+
+    @Override
+    public boolean startArray() {
+        depth++;
+        if (depth == 3) markNested();
+        return true;
+    }
+
+    @Override
+    public boolean endArray() {
+        depth--;
+        return true;
+    }
+
+    @Override
+    public boolean primitive(Object value) {
+        if (depth == 2 && currentField >= 0) current.set(currentField, value);
+        return true;
+    }
+
+    private void markNested() {
+        if (current != null && currentField >= 0) current.set(currentField, HonoursRecord.NESTED);
+    }
+}
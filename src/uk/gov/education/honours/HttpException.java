@@ -0,0 +1,19 @@
+package uk.gov.education.honours;
+
+import java.io.IOException;
+
+// A non-2xx response. The error body is read (and the connection released) before this is thrown.
+class HttpException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    final int statusCode;
+    final String responseBody;
+    final long retryAfterMillis;
+
+    HttpException(String method, String url, int statusCode, String responseBody, long retryAfterMillis) {
+        super(method + " " + url + " returned " + statusCode + (responseBody.isEmpty() ? "" : ": " + responseBody));
+        this.statusCode = statusCode;
+        this.responseBody = responseBody;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+}
@@ -0,0 +1,253 @@
+package uk.gov.education.honours;
+
+import org.json.simple.parser.ParseException;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.GZIPInputStream;
+
+// The one place Kissflow and upload requests are made, shared by KissflowApi and FileUploader.
+// HttpURLConnection keeps idle connections in the JDK's per-host keep-alive cache, but only hands a connection back
+// once its response (or error) body has been read to the end and closed, so send() drains error bodies itself and
+// closes success bodies once the caller's reader is done with them. The cache holds 5 idle connections per host
+// unless -Dhttp.maxConnections says otherwise; that is a JVM-wide setting, so it is left to the launcher (see
+// NominationUploader.main) rather than set here. Every request also goes through a per-host AdaptiveLimiter, and
+// idempotent ones are retried with jittered backoff when the host is overloaded or unreachable.
+class HttpTransport {
+    interface Request {
+        // sets headers and writes the body, if any; called again for each retry
+        void prepare(HttpURLConnection connection) throws IOException;
+    }
+
+    interface ResponseReader<T> {
+        T read(InputStream body) throws IOException, ParseException;
+    }
+
+    private static final String USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; WOW64; rv:55.0) Gecko/20100101 Firefox/55.0";
+    private static final int MAX_ERROR_BODY = 2048;
+    private static final Set<String> IDEMPOTENT_METHODS = new HashSet<>(Arrays.asList("GET", "HEAD", "PUT", "DELETE"));
+    private static final int MAX_ATTEMPTS = 4;
+    private static final long BASE_BACKOFF_MILLIS = 200;
+    private static final long MAX_BACKOFF_MILLIS = 10_000;
+    private static final long MAX_RETRY_AFTER_MILLIS = 60_000;
+
+    private final ConcurrentHashMap<String, AdaptiveLimiter> limiters = new ConcurrentHashMap<>();
+    private final Metrics metrics;
+
+    private volatile int connectTimeoutMillis = 10_000;
+    private volatile int readTimeoutMillis = 60_000;
+
+    HttpTransport() {
+        this(new Metrics());
+    }
+
+    HttpTransport(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    void setTimeouts(int connectTimeoutMillis, int readTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    // Makes a request, waiting for a slot with the host's limiter first. The response body is passed to reader only
+    // for a 2xx response. GET, PUT and the other idempotent methods are retried on 429, 5xx and connection
+    // failures, but never once the body has been handed to reader.
+    <T> T send(String url, String method, Request request, ResponseReader<T> reader) throws IOException, ParseException {
+        AdaptiveLimiter limiter = limiterFor(url);
+        boolean idempotent = IDEMPOTENT_METHODS.contains(method);
+
+        for (int attempt = 1; ; attempt++) {
+            limiter.acquire();
+            // the slot is held until reader is done with the body, and given back exactly once whatever is thrown
+            Runnable release = limiter::onIgnore;
+            long retryAfterMillis = 0;
+            try {
+                InputStream body = null;
+                try {
+                    HttpURLConnection connection = open(url, method);
+                    request.prepare(connection);
+                    long sentAt = System.nanoTime();
+                    body = execute(connection);
+                    long latency = System.nanoTime() - sentAt;
+                    release = () -> limiter.onSuccess(latency);
+                    metrics.recordLatency("http.response", latency);
+                } catch (HttpException e) {
+                    metrics.count("http.status." + e.statusCode, 1);
+                    if (isOverload(e.statusCode)) release = limiter::onOverload;
+                    if (!idempotent || !isOverload(e.statusCode) || attempt >= MAX_ATTEMPTS) throw e;
+                    retryAfterMillis = e.retryAfterMillis;
+                } catch (IOException | RuntimeException e) {
+                    metrics.count("http.failures", 1);
+                    if (e instanceof SocketTimeoutException) release = limiter::onOverload;
+                    boolean interrupted = e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException);
+                    if (!idempotent || interrupted || !(e instanceof IOException) || attempt >= MAX_ATTEMPTS) throw e;
+                }
+
+                if (body != null) {
+                    CountingInputStream in = new CountingInputStream(body);
+                    try {
+                        return reader.read(in);
+                    } finally {
+                        in.close();
+                        metrics.count("http.bytes.received", in.count);
+                    }
+                }
+            } finally {
+                release.run();
+            }
+
+            metrics.count("http.retries", 1);
+            backOff(attempt, retryAfterMillis);
+        }
+    }
+
+    static Request body(String contentType, String body) {
+        return connection -> writeBody(connection, contentType, body);
+    }
+
+    static <T> ResponseReader<T> discard() {
+        return body -> {
+            byte[] buffer = new byte[8192];
+            while (body.read(buffer) != -1) {
+            }
+            return null;
+        };
+    }
+
+    static Reader text(InputStream body) {
+        return new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8), 65536);
+    }
+
+    // the current in-flight cap for the host of url
+    int limitFor(String url) throws IOException {
+        return limiterFor(url).limit();
+    }
+
+    private AdaptiveLimiter limiterFor(String url) throws IOException {
+        URL parsed = new URL(url);
+        return limiters.computeIfAbsent(parsed.getHost() + ":" + parsed.getPort(), host -> new AdaptiveLimiter(4, 1, 64));
+    }
+
+    private static boolean isOverload(int statusCode) {
+        return statusCode == 429 || statusCode >= 500;
+    }
+
+    // "full jitter": a random wait up to an exponentially growing cap, or longer if the server asked for it
+    private static void backOff(int attempt, long retryAfterMillis) throws InterruptedIOException {
+        long cap = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << (attempt - 1));
+        long wait = Math.max(ThreadLocalRandom.current().nextLong(cap + 1), Math.min(retryAfterMillis, MAX_RETRY_AFTER_MILLIS));
+        try {
+            Thread.sleep(wait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted backing off before a retry");
+        }
+    }
+
+    private HttpURLConnection open(String url, String method) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(connectTimeoutMillis);
+        connection.setReadTimeout(readTimeoutMillis);
+        connection.setRequestMethod(method);
+        connection.setRequestProperty("User-Agent", USER_AGENT);
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        connection.setDoInput(true);
+        return connection;
+    }
+
+    // sends a small in-memory body with an exact Content-Length
+    static void writeBody(HttpURLConnection connection, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        if (contentType != null) connection.setRequestProperty("Content-Type", contentType);
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(bytes.length);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(bytes);
+        }
+    }
+
+    // the decoded response body of a 2xx response; anything else is drained and thrown as an HttpException
+    private InputStream execute(HttpURLConnection connection) throws IOException {
+        int status = connection.getResponseCode();
+        if (status < 200 || status >= 300) {
+            long retryAfter = retryAfterMillis(connection);
+            throw new HttpException(connection.getRequestMethod(), connection.getURL().toString(), status, drainError(connection), retryAfter);
+        }
+
+        InputStream body = connection.getInputStream();
+        if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) body = new GZIPInputStream(body);
+        return body;
+    }
+
+    // Retry-After as either a number of seconds or an http date; 0 if absent
+    private static long retryAfterMillis(HttpURLConnection connection) {
+        String retryAfter = connection.getHeaderField("Retry-After");
+        if (retryAfter == null) return 0;
+        try {
+            return Long.parseLong(retryAfter.trim()) * 1000;
+        } catch (NumberFormatException e) {
+            return Math.max(0, connection.getHeaderFieldDate("Retry-After", 0) - System.currentTimeMillis());
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        long count = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    private static String drainError(HttpURLConnection connection) {
+        InputStream error = connection.getErrorStream();
+        if (error == null) return "";
+
+        ByteArrayOutputStream kept = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        try {
+            if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) error = new GZIPInputStream(error);
+            int read;
+            while ((read = error.read(buffer)) != -1) {
+                if (kept.size() < MAX_ERROR_BODY) kept.write(buffer, 0, Math.min(read, MAX_ERROR_BODY - kept.size()));
+            }
+        } catch (IOException ignored) {
+            // the connection won't be reused, but the status is still worth reporting
+        } finally {
+            try {
+                error.close();
+            } catch (IOException ignored) {
+            }
+        }
+        return new String(kept.toByteArray(), StandardCharsets.UTF_8).trim();
+    }
+}
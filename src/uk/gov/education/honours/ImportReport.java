@@ -0,0 +1,41 @@
+package uk.gov.education.honours;
+
+import java.util.Collections;
+import java.util.List;
+
+public class ImportReport {
+    public enum Status { PROGRESSED, UPDATED, SKIPPED, FAILED }
+
+    public final List<RowOutcome> rows;
+
+    ImportReport(List<RowOutcome> rows) {
+        this.rows = Collections.unmodifiableList(rows);
+    }
+
+    public long count(Status status) {
+        return rows.stream().filter(x -> x.status == status).count();
+    }
+
+    public String toString() {
+        return String.format("%d rows: %d progressed, %d updated, %d skipped, %d failed",
+                rows.size(), count(Status.PROGRESSED), count(Status.UPDATED), count(Status.SKIPPED), count(Status.FAILED));
+    }
+
+    public static class RowOutcome {
+        public final int row; // 1-based, as shown in Excel
+        public final String id;
+        public final Status status;
+        public final Exception error;
+
+        RowOutcome(int row, String id, Status status, Exception error) {
+            this.row = row;
+            this.id = id;
+            this.status = status;
+            this.error = error;
+        }
+
+        public String toString() {
+            return String.format("row %d (%s): %s%s", row, id, status, error == null ? "" : " " + error);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package uk.gov.education.honours;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// A MetricsSink that keeps a latency histogram per stage and a total per counter, e.g. for a load test or a
+// periodic log line. toString() gives a table of everything recorded so far.
+public class InMemoryMetrics implements MetricsSink {
+    private final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    @Override
+    public void recordLatency(String stage, long nanos) {
+        histograms.computeIfAbsent(stage, x -> new Histogram()).record(nanos);
+    }
+
+    @Override
+    public void count(String counter, long amount) {
+        counters.computeIfAbsent(counter, x -> new LongAdder()).add(amount);
+    }
+
+    // the histogram for stage; empty if nothing was recorded for it
+    public Histogram histogram(String stage) {
+        Histogram histogram = histograms.get(stage);
+        return histogram == null ? new Histogram() : histogram;
+    }
+
+    public long counter(String counter) {
+        LongAdder adder = counters.get(counter);
+        return adder == null ? 0 : adder.sum();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder res = new StringBuilder();
+        res.append(String.format("%-28s %8s %10s %10s %10s %10s%n", "stage", "count", "p50 ms", "p95 ms", "p99 ms", "max ms"));
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(histograms).entrySet()) {
+            Histogram h = entry.getValue();
+            res.append(String.format("%-28s %8d %10.2f %10.2f %10.2f %10.2f%n", entry.getKey(), h.count(),
+                    h.percentile(50) / 1e6, h.percentile(95) / 1e6, h.percentile(99) / 1e6, h.max() / 1e6));
+        }
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(counters).entrySet()) {
+            res.append(String.format("%-28s %8d%n", entry.getKey(), entry.getValue().sum()));
+        }
+        return res.toString();
+    }
+
+    // Log-linear buckets: each power of two is split into 8, so a percentile is within about 12% of the true value,
+    // in a fixed 4 KB however many values are recorded.
+    public static class Histogram {
+        private static final int SUB_BUCKETS = 8;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long value) {
+            if (value < 0) value = 0;
+            buckets.incrementAndGet(bucketOf(value));
+            count.increment();
+            total.add(value);
+            max.accumulateAndGet(value, Math::max);
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        public long max() {
+            return max.get();
+        }
+
+        public double mean() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) total.sum() / n;
+        }
+
+        // the upper edge of the bucket holding the p-th percentile, capped at the largest value seen
+        public long percentile(double p) {
+            long n = count.sum();
+            if (n == 0) return 0;
+
+            long rank = Math.max(1, (long) Math.ceil(p / 100 * n));
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) return Math.min(upperEdge(i), max.get());
+            }
+            return max.get();
+        }
+
+        static int bucketOf(long value) {
+            if (value < SUB_BUCKETS) return (int) value;
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - 3)) & (SUB_BUCKETS - 1);
+            return (exponent - 2) * SUB_BUCKETS + sub;
+        }
+
+        static long upperEdge(int bucket) {
+            if (bucket < SUB_BUCKETS) return bucket;
+            int exponent = bucket / SUB_BUCKETS + 2;
+            long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - 3);
+            return lower + (1L << (exponent - 3)) - 1;
+        }
+    }
+}
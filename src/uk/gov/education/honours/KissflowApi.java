@@ -2,17 +2,16 @@ package uk.gov.education.honours;
 
 import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
 import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.*;
-import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import sun.java2d.pipe.SpanShapeRenderer;
 
-import javax.net.ssl.HttpsURLConnection;
 import java.awt.Color;
 import java.io.*;
-import java.net.URL;
 import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
@@ -22,66 +21,237 @@ import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import static uk.gov.education.honours.ExportColumns.*;
+
 class KissflowApi {
 
+    private static final int EXPORT_ROW_WINDOW = 100;
+    private static final int EXPORT_CHUNK_SIZE = 256;
+    private static final int SHORTLIST_IMPORT_COLUMNS = 8; // the six input columns, directorate and case link
+    private static final String RECORD_PAGE_PATH = "/api/1/Honours/list/p%d/%d";
+    private static final String RECORDS_KEY = "records";
+
     private final String kissflowApiKey;
+    private final HttpTransport transport;
+    private final Metrics metrics;
+    private String baseUrl = "https://kf-0000580.appspot.com";
+    private final RecordSnapshotCache recordCache = new RecordSnapshotCache(30_000);
+    private int recordPageSize = 500;
+    private int importConcurrency = 4;
+    private double importRequestsPerSecond = 0;
 
     KissflowApi(String kissflowApiKey) {
+        this(kissflowApiKey, new HttpTransport(), new Metrics());
+    }
 
+    KissflowApi(String kissflowApiKey, HttpTransport transport, Metrics metrics) {
         this.kissflowApiKey = kissflowApiKey;
+        this.transport = transport;
+        this.metrics = metrics;
+    }
+
+    // scheme and host the api calls go to, e.g. a local stub server in tests
+    void setBaseUrl(String baseUrl) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+    }
+
+    // how long a fetched record list is reused by later exports; 0 always fetches afresh. Imports never use it
+    void setRecordCacheTtl(long ttlMillis) {
+        recordCache.setTtlMillis(ttlMillis);
+    }
+
+    // bounds the /done and /update calls importShortlist has outstanding; a rate of 0 means unlimited
+    void setImportWriteBack(int maxInFlight, double maxRequestsPerSecond) {
+        this.importConcurrency = maxInFlight;
+        this.importRequestsPerSecond = maxRequestsPerSecond;
+    }
+
+    void setRecordPageSize(int recordPageSize) {
+        this.recordPageSize = Math.max(1, recordPageSize);
+    }
+
+    // walks the Honours list a page at a time, handing over each record as it is parsed. When the snapshot cache is
+    // on, the whole list is kept as compact records so later calls can reuse it; otherwise nothing outlives its record.
+    private void forEachRecord(HonoursRecordParser.RecordHandler handler) throws IOException, org.json.simple.parser.ParseException {
+        forEachRecord(false, handler);
+    }
+
+    // fresh skips the snapshot cache, for callers that decide what to write from the records they read
+    @SuppressWarnings("unchecked")
+    private void forEachRecord(boolean fresh, HonoursRecordParser.RecordHandler handler) throws IOException, org.json.simple.parser.ParseException {
+        if (fresh || !recordCache.isEnabled()) {
+            forEachPage(handler);
+            return;
+        }
+
+        // cached as one list rather than page by page, so every record a caller sees is from the same walk
+        List<HonoursRecord> records = (List<HonoursRecord>) recordCache.get(RECORDS_KEY, () -> {
+            List<HonoursRecord> fetched = new ArrayList<>();
+            forEachPage(fetched::add);
+            return fetched;
+        });
+        for (HonoursRecord record : records) handler.handle(record);
+    }
+
+    // The server may cap the page size below what was asked for. Whether it then starts page n at (n - 1) times the
+    // size asked for or the size it sent isn't known, so once a page comes back short the rest are asked for at the
+    // size it sent, where the two agree. A short page after that is the last.
+    @SuppressWarnings("try")
+    private void forEachPage(HonoursRecordParser.RecordHandler handler) throws IOException, org.json.simple.parser.ParseException {
+        int pageSize = recordPageSize;
+        boolean sizeKnown = false;
+        for (long read = 0; ; ) {
+            String url = baseUrl + String.format(RECORD_PAGE_PATH, read / pageSize + 1, pageSize);
+            int count;
+            // the page is fetched, parsed and handled in one pass, so this includes the handler's time too
+            try (Metrics.Span ignored = metrics.time("records.page")) {
+                count = streamRecords(url, handler);
+            }
+            metrics.count("records.fetched", count);
+            read += count;
+
+            if (count == 0 || (count < pageSize && sizeKnown)) return;
+            if (count < pageSize) pageSize = count;
+            sizeKnown = true;
+        }
     }
 
-    void importShortlist(File shortlistFile) throws IOException, InvalidFormatException, org.json.simple.parser.ParseException {
-        Sheet sheet = WorkbookFactory.create(shortlistFile).getSheetAt(0);
-        validateWorksheetIsShortlist(sheet);
+    @SuppressWarnings("try")
+    ImportReport importShortlist(File shortlistFile) throws IOException, InvalidFormatException, org.json.simple.parser.ParseException {
+        Sheet sheet;
+        try (Metrics.Span ignored = metrics.time("import.read")) {
+            sheet = WorkbookFactory.create(shortlistFile).getSheetAt(0);
+        }
+        validateShortlistHeader(sheet.getRow(0) == null ? new String[SHORTLIST_IMPORT_COLUMNS] : readShortlistCells(sheet.getRow(0)));
 
         Iterator<Row> rowIterator = sheet.rowIterator();
         rowIterator.next();
-        JSONArray records = (JSONArray) callJsonEndpoint("https://kf-0000580.appspot.com/api/1/Honours/list/p1/99999", null, "GET", null);
+        Map<Object, HonoursRecord> recordsById = indexRecordsById();
+
+        try (WriteBackPipeline pipeline = new WriteBackPipeline(importConcurrency, importRequestsPerSecond)) {
+            while (rowIterator.hasNext()) {
+                Row row = rowIterator.next();
+                String[] cells;
+                try {
+                    cells = readShortlistCells(row);
+                } catch (RuntimeException e) {
+                    pipeline.fail(row.getRowNum() + 1, null, e);
+                    continue;
+                }
+                queueWriteBack(pipeline, row.getRowNum() + 1, cells, recordsById);
+            }
+            return countOutcomes(pipeline.finish());
+        } finally {
+            recordCache.invalidate(RECORDS_KEY);
+        }
+    }
+
+    // same as importShortlist, but reads the xlsx with the event model instead of loading the whole workbook, and
+    // feeds rows to the write-back pipeline as they are parsed. Cells are read as Excel displays them, so a rank typed
+    // in as a number is imported here where importShortlist, which only takes text cells, fails its row.
+    ImportReport importShortlistStreaming(File shortlistFile) throws IOException, InvalidFormatException, org.json.simple.parser.ParseException {
+        try (WriteBackPipeline pipeline = new WriteBackPipeline(importConcurrency, importRequestsPerSecond)) {
+            List<Map<Object, HonoursRecord>> recordsById = new ArrayList<>(1);
+            StreamingShortlistReader.read(shortlistFile, SHORTLIST_IMPORT_COLUMNS, (rowNum, cells) -> {
+                if (recordsById.isEmpty()) {
+                    // the header must be the very first row, and is checked before any records are fetched
+                    validateShortlistHeader(rowNum == 0 ? cells : new String[SHORTLIST_IMPORT_COLUMNS]);
+                    try {
+                        recordsById.add(indexRecordsById());
+                    } catch (org.json.simple.parser.ParseException e) {
+                        throw new IOException("Could not read the Honours records", e);
+                    }
+                    return;
+                }
+                queueWriteBack(pipeline, rowNum + 1, cells, recordsById.get(0));
+            });
+            if (recordsById.isEmpty()) validateShortlistHeader(new String[SHORTLIST_IMPORT_COLUMNS]);
+
+            return countOutcomes(pipeline.finish());
+        } finally {
+            recordCache.invalidate(RECORDS_KEY);
+        }
+    }
+
+    @SuppressWarnings("try")
+    private Map<Object, HonoursRecord> indexRecordsById() throws IOException, org.json.simple.parser.ParseException {
+        Map<Object, HonoursRecord> recordsById = new HashMap<>();
+        try (Metrics.Span ignored = metrics.time("import.index")) {
+            // whether a row is progressed or updated depends on the record's current state, so never a cached one
+            forEachRecord(true, record -> recordsById.putIfAbsent(record.get("Id"), record));
+        }
+        return recordsById;
+    }
+
+    private ImportReport countOutcomes(ImportReport report) {
+        for (ImportReport.Status status : ImportReport.Status.values()) {
+            metrics.count("import.rows." + status.name().toLowerCase(), report.count(status));
+        }
+        return report;
+    }
+
+    private static String[] readShortlistCells(Row row) {
+        String[] cells = new String[SHORTLIST_IMPORT_COLUMNS];
+        for (int i = 0; i < cells.length; i++) {
+            Cell cell = row.getCell(i);
+            cells[i] = cell == null ? "" : cell.getStringCellValue();
+        }
+        return cells;
+    }
 
-        while (rowIterator.hasNext()) {
-            Row row = rowIterator.next();
-            String[] split = row.getCell(7).getStringCellValue().split("/");
-            String id = split[split.length-1];
+    private void queueWriteBack(WriteBackPipeline pipeline, int rowNum, String[] cells, Map<Object, HonoursRecord> recordsById) throws InterruptedIOException {
+        String id = null;
+        try {
+            String[] split = cells[7].split("/");
+            id = split[split.length-1];
 
-            Optional recordOrNone = records.stream().filter(x -> Objects.equals(((JSONObject) x).get("Id"), id)).findFirst();
-            if (!recordOrNone.isPresent()) continue;
-            JSONObject record = (JSONObject) recordOrNone.get();
+            HonoursRecord record = recordsById.get(id);
+            if (record == null) {
+                pipeline.skip(rowNum, id);
+                return;
+            }
 
             boolean isProgressNotUpdate =
                     (   Objects.equals(record.getOrDefault("Directorate_shortlist", ""), "")
-                     && !Objects.equals(row.getCell(1).getStringCellValue(), ""))
+                     && !Objects.equals(cells[1], ""))
                   ||(   Objects.equals(record.getOrDefault("Departmental_shortlist", ""), "")
-                     && !Objects.equals(row.getCell(0).getStringCellValue(), ""));
+                     && !Objects.equals(cells[0], ""));
 
             Map<String,String> body = new HashMap<>();
 
-            body.put("Departmental_shortlist", URLEncoder.encode(row.getCell(0).getStringCellValue(), "UTF-8"));
-            body.put("Directorate_shortlist", URLEncoder.encode(Integer.valueOf(Integer.parseInt(row.getCell(1).getStringCellValue())).toString(), "UTF-8"));
-            body.put("Round", URLEncoder.encode(row.getCell(2).getStringCellValue(), "UTF-8"));
-            body.put("Proposed_Award", URLEncoder.encode(row.getCell(3).getStringCellValue(), "UTF-8"));
-            body.put("Proposed_Committee", URLEncoder.encode(row.getCell(4).getStringCellValue(), "UTF-8"));
-            body.put("Proposed_Category", URLEncoder.encode(row.getCell(5).getStringCellValue(), "UTF-8"));
+            body.put("Departmental_shortlist", URLEncoder.encode(cells[0], "UTF-8"));
+            body.put("Directorate_shortlist", URLEncoder.encode(Integer.valueOf(Integer.parseInt(cells[1])).toString(), "UTF-8"));
+            body.put("Round", URLEncoder.encode(cells[2], "UTF-8"));
+            body.put("Proposed_Award", URLEncoder.encode(cells[3], "UTF-8"));
+            body.put("Proposed_Committee", URLEncoder.encode(cells[4], "UTF-8"));
+            body.put("Proposed_Category", URLEncoder.encode(cells[5], "UTF-8"));
 
             String fullbody = body.entrySet().stream().map(x -> String.format("%s=%s", x.getKey(), x.getValue())).collect(Collectors.joining("&"));
 
-            if (isProgressNotUpdate) {
-                callJsonEndpoint("https://kf-0000580.appspot.com/api/1/Honours/" + id + "/done", fullbody, "POST", "application/x-www-form-urlencoded");
-            } else {
-                callJsonEndpoint("https://kf-0000580.appspot.com/api/1/Honours/" + id + "/update", fullbody, "PUT", "application/x-www-form-urlencoded");
-            }
+            String recordUrl = baseUrl + "/api/1/Honours/" + id;
+            pipeline.submit(rowNum, id, () -> {
+                if (isProgressNotUpdate) {
+                    callJsonEndpoint(recordUrl + "/done", fullbody, "POST", "application/x-www-form-urlencoded");
+                    return ImportReport.Status.PROGRESSED;
+                } else {
+                    callJsonEndpoint(recordUrl + "/update", fullbody, "PUT", "application/x-www-form-urlencoded");
+                    return ImportReport.Status.UPDATED;
+                }
+            });
+        } catch (RuntimeException | UnsupportedEncodingException e) {
+            pipeline.fail(rowNum, id, e);
         }
     }
 
-    private static void validateWorksheetIsShortlist(Sheet sheet) {
+    private static void validateShortlistHeader(String[] header) {
         //some basic validation
         boolean goodFormat =
-                Objects.equals(sheet.getRow(0).getCell(0).getStringCellValue(), "Departmental rank")
-            &&  Objects.equals(sheet.getRow(0).getCell(1).getStringCellValue(), "Directorate rank")
-            &&  Objects.equals(sheet.getRow(0).getCell(2).getStringCellValue(), "Round")
-            &&  Objects.equals(sheet.getRow(0).getCell(3).getStringCellValue(), "Proposed award")
-            &&  Objects.equals(sheet.getRow(0).getCell(4).getStringCellValue(), "Proposed committee")
-            &&  Objects.equals(sheet.getRow(0).getCell(5).getStringCellValue(), "Proposed category");
+                Objects.equals(header[0], "Departmental rank")
+            &&  Objects.equals(header[1], "Directorate rank")
+            &&  Objects.equals(header[2], "Round")
+            &&  Objects.equals(header[3], "Proposed award")
+            &&  Objects.equals(header[4], "Proposed committee")
+            &&  Objects.equals(header[5], "Proposed category");
 
         if (!goodFormat) {
             throw new UnsupportedOperationException("Wrong table format: Columns should be Departmental rank, Directorate rank, Round, Proposed award, Proposed committee, Proposed category");
@@ -89,222 +259,242 @@ class KissflowApi {
     }
 
     XSSFWorkbook getShortlist(String directorate, String round) throws IOException, org.json.simple.parser.ParseException {
+        XSSFWorkbook wb = new XSSFWorkbook();
+        fillShortlist(wb, directorate, round);
+        return wb;
+    }
+
+    // writes the shortlist through a streaming workbook, keeping only a window of rows in memory
+    @SuppressWarnings("try")
+    void writeShortlist(String directorate, String round, OutputStream out) throws IOException, org.json.simple.parser.ParseException {
+        SXSSFWorkbook wb = newStreamingWorkbook();
+        try {
+            fillShortlist(wb, directorate, round);
+            try (Metrics.Span ignored = metrics.time("export.write")) {
+                wb.write(out);
+            }
+        } finally {
+            wb.dispose();
+        }
+    }
+
+    private void fillShortlist(Workbook wb, String directorate, String round) throws IOException, org.json.simple.parser.ParseException {
         boolean filterToDirectorate = !Objects.equals(directorate, null) && !Objects.equals(directorate, "");
         boolean filterToRound = !Objects.equals(round, null) && !Objects.equals(round, "");
 
-        JSONArray results = (JSONArray) callJsonEndpoint("https://kf-0000580.appspot.com/api/1/Honours/list/p1/99999", null, "GET", null);
-        int currentRow = 0;
+        ShortlistStyles styles = new ShortlistStyles(wb);
+        SheetWriter sheet = new SheetWriter(wb.createSheet());
+        sheet.appendHeader(styles.header, SHORTLIST_COLUMNS.headers());
 
-        XSSFWorkbook wb = new XSSFWorkbook();
-        XSSFSheet sheet = wb.createSheet();
-        XSSFRow header = appendRow(sheet, currentRow++, Arrays.asList(
-            "Departmental rank",
-            "Directorate rank",
-            "Round",
-            "Proposed award",
-            "Proposed committee",
-            "Proposed category",
-            "Directorate",
-            "Case link",
-            "Forenames",
-            "Surnames",
-            "Short citation",
-            "Region",
-            "Gender",
-            "Ethnic group"
-        ));
-
-        XSSFCellStyle headerStyle = wb.createCellStyle();
-        XSSFFont headerFont = wb.createFont();
-        headerFont.setBold(true);
-        headerFont.setColor(IndexedColors.WHITE.getIndex());
-        headerStyle.setFont(headerFont);
-        headerStyle.setFillForegroundColor(new XSSFColor(new Color(25, 129, 183)));
-        headerStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
-        Iterator<Cell> cellIterator = header.cellIterator();
-        while(cellIterator.hasNext()) cellIterator.next().setCellStyle(headerStyle);
-
-        XSSFCellStyle depStyle = wb.createCellStyle();
-        depStyle.setFillForegroundColor(new XSSFColor(new Color(249, 203, 156)));
-        depStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
-        XSSFCellStyle dirStyle = wb.createCellStyle();
-        dirStyle.setFillForegroundColor(new XSSFColor(new Color(200, 231, 247)));
-        dirStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
-
-        for(Object o : results) {
-            JSONObject item = (JSONObject) o;
-
-            if (filterToDirectorate && (!Objects.equals(directorate, item.getOrDefault("Directorate","")) || !item.containsKey("Assigned To-Directorate Shortlist"))) continue;
-            if (filterToRound && ((Double) item.getOrDefault("Directorate_shortlist", 0.0) < 0.5 || !Objects.equals(round, item.getOrDefault("Round","")) || !item.containsKey("Assigned To-Department Shortlist"))) continue;
-
-            XSSFRow thisRow = appendRow(sheet, currentRow, Arrays.asList(
-                    (String) item.getOrDefault("Departmental_shortlist", ""),
-                    Integer.valueOf(Double.valueOf((double) item.getOrDefault("Directorate_shortlist", 0.0)).intValue()).toString(),
-                    (String) item.getOrDefault("Round", ""),
-                    (String) item.getOrDefault("Proposed_Award", ""),
-                    (String) item.getOrDefault("Proposed_Committee", ""),
-                    (String) item.getOrDefault("Proposed_Category", ""),
-                    (String) item.getOrDefault("Directorate", ""),
-                    "https://kf-0000580.appspot.com/#/inbox/Provide%20Input/Sh25328874_8f06_11e7_addd_062ed84aadae/Acc70d887e_8f06_11e7_addd_062ed84aadae/" + item.getOrDefault("Id", ""),
-                    (String) item.getOrDefault("First_Name", ""),
-                    (String) item.getOrDefault("Last_Name", ""),
-                    (String) item.getOrDefault("Short_citation", ""),
-                    (String) item.getOrDefault("Region", ""),
-                    (String) item.getOrDefault("Gender", ""),
-                    (String) item.getOrDefault("Ethnic_Group", "")
-            ));
-
-            thisRow.getCell(0).setCellStyle(depStyle);
-            for (int i = 1; i<6; i++) thisRow.getCell(i).setCellStyle(dirStyle);
+        List<HonoursRecord> chunk = new ArrayList<>();
+        forEachRecord(item -> {
+            if (filterToDirectorate && (!Objects.equals(directorate, item.getOrDefault("Directorate","")) || !item.containsKey("Assigned To-Directorate Shortlist"))) return;
+            if (filterToRound && ((Double) item.getOrDefault("Directorate_shortlist", 0.0) < 0.5 || !Objects.equals(round, item.getOrDefault("Round","")) || !item.containsKey("Assigned To-Department Shortlist"))) return;
+
+            chunk.add(item);
+            if (chunk.size() == EXPORT_CHUNK_SIZE) appendShortlistRows(sheet, styles, chunk);
+        });
+        appendShortlistRows(sheet, styles, chunk);
+    }
+
+    @SuppressWarnings("try")
+    private void appendShortlistRows(SheetWriter sheet, ShortlistStyles styles, List<HonoursRecord> chunk) {
+        List<String[]> rows = mapRows(SHORTLIST_COLUMNS, chunk);
+        try (Metrics.Span ignored = metrics.time("export.append")) {
+            for (String[] values : rows) {
+                Row thisRow = sheet.append(values);
+                thisRow.getCell(0).setCellStyle(styles.departmentalRank);
+                for (int i = 1; i<6; i++) thisRow.getCell(i).setCellStyle(styles.directorateInput);
+            }
         }
+        chunk.clear();
+    }
 
-        return wb;
+    @SuppressWarnings("try")
+    private List<String[]> mapRows(ExportColumns columns, List<HonoursRecord> chunk) {
+        metrics.count("export.rows", chunk.size());
+        try (Metrics.Span ignored = metrics.time("export.map")) {
+            return columns.mapAll(chunk);
+        }
     }
 
     XSSFWorkbook getFinalShortlist(String round) throws IOException, org.json.simple.parser.ParseException {
-        boolean filterToRound = false;
+        XSSFWorkbook wb = new XSSFWorkbook();
+        fillFinalShortlist(wb, round);
+        return wb;
+    }
 
-        if (round.matches("[0-9]{4} [A-Z]{2}")) {
-            filterToRound = true;
+    @SuppressWarnings("try")
+    void writeFinalShortlist(String round, OutputStream out) throws IOException, org.json.simple.parser.ParseException {
+        SXSSFWorkbook wb = newStreamingWorkbook();
+        try {
+            fillFinalShortlist(wb, round);
+            try (Metrics.Span ignored = metrics.time("export.write")) {
+                wb.write(out);
+            }
+        } finally {
+            wb.dispose();
         }
+    }
 
-        XSSFWorkbook wb = new XSSFWorkbook();
+    private void fillFinalShortlist(Workbook wb, String round) throws IOException, org.json.simple.parser.ParseException {
+        boolean filterToRound = round.matches("[0-9]{4} [A-Z]{2}");
 
-        XSSFSheet sheet = wb.createSheet("Sheet 1");
-        int currentRow = 0;
-        XSSFRow header = appendRow(sheet, currentRow++, Arrays.asList(
-                "Department",
-                "Hon List",
-                "Year",
-                "Surname",
-                "Forename(s)",
-                "AKA",
-                "Preferred Name",
-                "Title",
-                "Post-Nominals",
-                "Award",
-                "Original Award",
-                "DOB",
-                "Approx DoB",
-                "Leaving Current Post",
-                "Total Length of Service",
-                "Length of Service in Post",
-                "Length of Service in Grade",
-                "Nationality",
-                "Foreign National?",
-                "Short Citation",
-                "Long Citation",
-                "Edited Long Citation",
-                "Address 1",
-                "Address 2",
-                "Address 3",
-                "Town",
-                "County",
-                "Country",
-                "Postcode",
-                "SecureAddress",
-                "Telephone Number",
-                "Rating",
-                "Public",
-                "NomineesOrigin",
-                "Committee",
-                "Original Committee",
-                "Category",
-                "Original Category",
-                "Gender",
-                "Voluntary Work",
-                "Previous Honours & Dates",
-                "Previous Recommendations",
-                "NominatorsOrigin"
-        ));
-
-        XSSFCellStyle headerStyle = wb.createCellStyle();
-        XSSFFont headerFont = wb.createFont();
-        headerFont.setBold(true);
-        headerFont.setColor(IndexedColors.WHITE.getIndex());
-        headerStyle.setFont(headerFont);
-        headerStyle.setFillForegroundColor(new XSSFColor(new Color(25, 129, 183)));
-        headerStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
-        Iterator<Cell> cellIterator = header.cellIterator();
-        while(cellIterator.hasNext()) cellIterator.next().setCellStyle(headerStyle);
-
-        JSONArray results = (JSONArray) callJsonEndpoint("https://kf-0000580.appspot.com/api/1/Honours/list/p1/99999", null, "GET", null);
-        for (Object o : results) {
-            JSONObject item = (JSONObject) o;
+        SheetWriter sheet = new SheetWriter(wb.createSheet("Sheet 1"));
+        sheet.appendHeader(new ExportStyles(wb).header, FINAL_SHORTLIST_COLUMNS.headers());
 
+        List<HonoursRecord> chunk = new ArrayList<>();
+        forEachRecord(item -> {
             if(filterToRound && !Objects.equals(round, item.getOrDefault("Round", "")) && (Objects.equals(item.getOrDefault("Departmental_shortlist", ""),"") || item.containsKey("Assigned To"))) {
-                continue;
+                return;
             }
 
-            Matcher year = Pattern.compile("[0-9]{4}").matcher((String) item.getOrDefault("Round", ""));
-            boolean dobApproximate = Objects.equals(item.getOrDefault("Is_Date_of_Birth_approximate", ""), "Yes");
-            String[] addressLines = ((String) item.getOrDefault("Street", "")).split("\n");
-
-            appendRow(sheet, currentRow++, Arrays.asList(
-                    "DfE",
-                    (String) item.getOrDefault("Round", ""),
-                    year.find() ? year.group() : "",
-                    (String) item.getOrDefault("Last_Name", ""),
-                    (String) item.getOrDefault("First_Name", ""),
-                    "",
-                    (String) item.getOrDefault("Preferrred_Names", ""),
-                    (String) item.getOrDefault("Title", ""),
-                    (String) item.getOrDefault("PostNominals", ""),
-                    (String) item.getOrDefault("Proposed_Award", ""),
-                    (String) item.getOrDefault("Proposed_Award", ""),
-                    dobApproximate ? "" : (String) item.getOrDefault("Date_of_Birth", ""),
-                    dobApproximate ? (String) item.getOrDefault("Date_of_Birth", "") : "",
-                    (String) item.getOrDefault("Date_Leaving_Post", ""),
-                    (String) item.getOrDefault("Total_Length_Of_Service", ""),
-                    Objects.equals(item.getOrDefault("Is_this_a_state_nomination", ""), "Yes")? "" : doubleAsIntString(item, "Years"),
-                    Objects.equals(item.getOrDefault("Is_this_a_state_nomination", ""), "Yes") ? doubleAsIntString(item, "Years") : "",
-                    (String) item.getOrDefault("Nationality",""),
-                    ((String) item.getOrDefault("Nationality","")).contains("British") ? "N" : "Y",
-                    (String) item.getOrDefault("Short_citation", ""),
-                    (String) item.getOrDefault("Long_citation", ""),
-                    (String) item.getOrDefault("Long_citation", ""),
-                    addressLines[0],
-                    addressLines.length > 1 ? addressLines[1] : "",
-                    addressLines.length > 3 ? addressLines[2] : "",
-                    (String) item.getOrDefault("Town", ""),
-                    (String) item.getOrDefault("County", ""),
-                    (String) item.getOrDefault("Country", ""),
-                    (String) item.getOrDefault("Postcode", ""),
-                    Objects.equals(item.getOrDefault("Secure_Address", ""), "Yes") ? "Y" : "N",
-                    (String) item.getOrDefault("Telephone", ""),
-                    Integer.valueOf(((Double) item.getOrDefault("Departmental_shortlist", 0)).intValue()).toString(),
-                    ((String) item.getOrDefault("Nomination_Type", "")).contains("Public") ? (String) item.getOrDefault("Nomination_Type", "") : "",
-                    (String) item.getOrDefault("Ethnic_Group", ""),
-                    (String) item.getOrDefault("Proposed_Committee", ""),
-                    (String) item.getOrDefault("Proposed_Committee", ""),
-                    (String) item.getOrDefault("Proposed_Category", ""),
-                    (String) item.getOrDefault("Proposed_Category", ""),
-                    (String) item.getOrDefault("Gender", ""),
-                    Objects.equals(item.getOrDefault("Voluntary_work", ""), "Yes") ? "Y" : "N",
-                    (String) item.getOrDefault("Previous_HonoursRecommendations", ""),
-                    (String) item.getOrDefault("Previous_HonoursRecommendations", ""),
-                    (String) item.getOrDefault("Ethnic_Group_", "")));
+            chunk.add(item);
+            if (chunk.size() == EXPORT_CHUNK_SIZE) appendFinalShortlistRows(sheet, chunk);
+        });
+        appendFinalShortlistRows(sheet, chunk);
+    }
+
+    @SuppressWarnings("try")
+    private void appendFinalShortlistRows(SheetWriter sheet, List<HonoursRecord> chunk) {
+        List<String[]> rows = mapRows(FINAL_SHORTLIST_COLUMNS, chunk);
+        try (Metrics.Span ignored = metrics.time("export.append")) {
+            for (String[] values : rows) sheet.append(values);
         }
+        chunk.clear();
+    }
 
+    static final ExportColumns SHORTLIST_COLUMNS = new ExportColumns(
+            column("Departmental rank", text("Departmental_shortlist")),
+            column("Directorate rank", wholeNumber("Directorate_shortlist")),
+            column("Round", text("Round")),
+            column("Proposed award", text("Proposed_Award")),
+            column("Proposed committee", text("Proposed_Committee")),
+            column("Proposed category", text("Proposed_Category")),
+            column("Directorate", text("Directorate")),
+            column("Case link", row -> "https://kf-0000580.appspot.com/#/inbox/Provide%20Input/Sh25328874_8f06_11e7_addd_062ed84aadae/Acc70d887e_8f06_11e7_addd_062ed84aadae/" + row.item.getOrDefault("Id", "")),
+            column("Forenames", text("First_Name")),
+            column("Surnames", text("Last_Name")),
+            column("Short citation", text("Short_citation")),
+            column("Region", text("Region")),
+            column("Gender", text("Gender")),
+            column("Ethnic group", text("Ethnic_Group"))
+    );
+
+    static final ExportColumns FINAL_SHORTLIST_COLUMNS = new ExportColumns(
+            column("Department", constant("DfE")),
+            column("Hon List", text("Round")),
+            column("Year", year("Round")),
+            column("Surname", text("Last_Name")),
+            column("Forename(s)", text("First_Name")),
+            column("AKA", constant("")),
+            column("Preferred Name", text("Preferrred_Names")),
+            column("Title", text("Title")),
+            column("Post-Nominals", text("PostNominals")),
+            column("Award", text("Proposed_Award")),
+            column("Original Award", text("Proposed_Award")),
+            column("DOB", unless("Is_Date_of_Birth_approximate", "Yes", text("Date_of_Birth"))),
+            column("Approx DoB", onlyIf("Is_Date_of_Birth_approximate", "Yes", text("Date_of_Birth"))),
+            column("Leaving Current Post", text("Date_Leaving_Post")),
+            column("Total Length of Service", text("Total_Length_Of_Service")),
+            column("Length of Service in Post", unless("Is_this_a_state_nomination", "Yes", wholeNumber("Years"))),
+            column("Length of Service in Grade", onlyIf("Is_this_a_state_nomination", "Yes", wholeNumber("Years"))),
+            column("Nationality", text("Nationality")),
+            column("Foreign National?", row -> ((String) row.item.getOrDefault("Nationality","")).contains("British") ? "N" : "Y"),
+            column("Short Citation", text("Short_citation")),
+            column("Long Citation", text("Long_citation")),
+            column("Edited Long Citation", text("Long_citation")),
+            column("Address 1", addressLine(0, 1)),
+            column("Address 2", addressLine(1, 2)),
+            column("Address 3", addressLine(2, 4)),
+            column("Town", text("Town")),
+            column("County", text("County")),
+            column("Country", text("Country")),
+            column("Postcode", text("Postcode")),
+            column("SecureAddress", yesNo("Secure_Address")),
+            column("Telephone Number", text("Telephone")),
+            column("Rating", wholeNumber("Departmental_shortlist")),
+            column("Public", row -> ((String) row.item.getOrDefault("Nomination_Type", "")).contains("Public") ? (String) row.item.getOrDefault("Nomination_Type", "") : ""),
+            column("NomineesOrigin", text("Ethnic_Group")),
+            column("Committee", text("Proposed_Committee")),
+            column("Original Committee", text("Proposed_Committee")),
+            column("Category", text("Proposed_Category")),
+            column("Original Category", text("Proposed_Category")),
+            column("Gender", text("Gender")),
+            column("Voluntary Work", yesNo("Voluntary_work")),
+            column("Previous Honours & Dates", text("Previous_HonoursRecommendations")),
+            column("Previous Recommendations", text("Previous_HonoursRecommendations")),
+            column("NominatorsOrigin", text("Ethnic_Group_"))
+    );
+
+    private static SXSSFWorkbook newStreamingWorkbook() {
+        SXSSFWorkbook wb = new SXSSFWorkbook(EXPORT_ROW_WINDOW);
+        wb.setCompressTempFiles(true); // long citations make for large temp files
         return wb;
     }
 
-    private String doubleAsIntString(JSONObject item, String fieldValue) {
-        return Integer.valueOf(((Double) item.getOrDefault(fieldValue, 0)).intValue()).toString();
+    // styles are created once per workbook and shared by every cell that uses them. Each export creates only the
+    // styles it applies, since a workbook keeps every style it was given whether a cell uses it or not.
+    private static class ExportStyles {
+        final CellStyle header;
+
+        ExportStyles(Workbook wb) {
+            header = fillStyle(wb, new Color(25, 129, 183));
+            Font headerFont = wb.createFont();
+            headerFont.setBold(true);
+            headerFont.setColor(IndexedColors.WHITE.getIndex());
+            header.setFont(headerFont);
+        }
+
+        static CellStyle fillStyle(Workbook wb, Color color) {
+            // both XSSFWorkbook and SXSSFWorkbook hand out XSSF styles, which take rgb fills
+            XSSFCellStyle style = (XSSFCellStyle) wb.createCellStyle();
+            style.setFillForegroundColor(new XSSFColor(color));
+            style.setFillPattern(FillPatternType.SOLID_FOREGROUND);
+            return style;
+        }
     }
 
-    private static XSSFRow appendRow(XSSFSheet sheet, int currentRow, List<String> strings) {
-        XSSFRow row = sheet.createRow(currentRow);
-        int cellNum = 0;
-        for (String string : strings) {
-            row.createCell(cellNum++).setCellValue(string);
+    private static class ShortlistStyles extends ExportStyles {
+        final CellStyle departmentalRank;
+        final CellStyle directorateInput;
+
+        ShortlistStyles(Workbook wb) {
+            super(wb);
+            departmentalRank = fillStyle(wb, new Color(249, 203, 156));
+            directorateInput = fillStyle(wb, new Color(200, 231, 247));
         }
-        return row;
     }
 
+    // appends rows strictly in order, as a streaming sheet requires
+    private static class SheetWriter {
+        private final Sheet sheet;
+        private int nextRow = 0;
+
+        SheetWriter(Sheet sheet) {
+            this.sheet = sheet;
+        }
+
+        void appendHeader(CellStyle style, String[] strings) {
+            Row header = append(strings);
+            Iterator<Cell> cellIterator = header.cellIterator();
+            while(cellIterator.hasNext()) cellIterator.next().setCellStyle(style);
+        }
+
+        Row append(String[] strings) {
+            Row row = sheet.createRow(nextRow++);
+            int cellNum = 0;
+            for (String string : strings) {
+                row.createCell(cellNum++).setCellValue(string);
+            }
+            return row;
+        }
+    }
 
+
+    @SuppressWarnings("try")
     String sendToKissflow(List<Section> res, String fileName, String nominationFileLocation, List<NominationUploader.FileNameAndPath> uploadedFiles) throws IOException, ParseException, org.json.simple.parser.ParseException {
-        String httpsURL = "https://kf-0000580.appspot.com/api/1/Honours/submit";
+        String httpsURL = baseUrl + "/api/1/Honours/submit";
         ResParser d = new ResParser(res);
         JSONObject body = new JSONObject();
 
@@ -371,35 +561,34 @@ class KissflowApi {
         body.put("Relationship_to_nominee", d.getSimpleAnswer(1, "What is your relationship to the nominee?"));
 
 
-        JSONObject submit = (JSONObject) callJsonEndpoint(httpsURL, body.toJSONString(), "POST", "application/json");
+        JSONObject submit;
+        try (Metrics.Span ignored = metrics.time("kissflow.submit")) {
+            submit = (JSONObject) callJsonEndpoint(httpsURL, body.toJSONString(), "POST", "application/json");
+        } finally {
+            recordCache.invalidate(RECORDS_KEY);
+        }
 
         return String.format("https://kf-0000580.appspot.com/#/inbox/Provide Input/Sh25328874_8f06_11e7_addd_062ed84aadae/Ac56fe5508_8f07_11e7_addd_062ed84aadae/%s", (String) submit.get("Id"));
     }
 
     Object callJsonEndpoint(String httpsURL, String body, String method, String contentType) throws IOException, org.json.simple.parser.ParseException {
-        URL myurl = new URL(httpsURL);
-        HttpsURLConnection con = (HttpsURLConnection)myurl.openConnection();
-        con.setRequestMethod(method);
-
-        if (contentType != null) con.setRequestProperty("Content-Type", contentType);
-        //con.setRequestProperty("User-Agent", "Mozilla/4.0 (compatible; MSIE 5.0;Windows98;DigExt)");
-        con.setRequestProperty("api-key",kissflowApiKey);
-        con.setDoInput(true);
-
-        if (body != null) {
-            con.setRequestProperty("Content-Length", String.valueOf(body.length()));
-
-            con.setDoOutput(true);
-
-            DataOutputStream output = new DataOutputStream(con.getOutputStream());
-
-            output.writeBytes(body);
-            output.close();
-        }
+        return transport.send(httpsURL, method, kissflowRequest(body, contentType), response -> new JSONParser().parse(HttpTransport.text(response)));
+    }
 
-        System.out.println("Resp Code:"+con .getResponseCode());
+    // parses a json array of records as it is read, handing each one over as soon as it is complete
+    int streamRecords(String httpsURL, HonoursRecordParser.RecordHandler handler) throws IOException, org.json.simple.parser.ParseException {
+        return transport.send(httpsURL, "GET", kissflowRequest(null, null), response -> {
+            HonoursRecordParser parser = new HonoursRecordParser(handler);
+            new JSONParser().parse(HttpTransport.text(response), parser);
+            return parser.count();
+        });
+    }
 
-        return new JSONParser().parse(new InputStreamReader(con.getInputStream()));
+    private HttpTransport.Request kissflowRequest(String body, String contentType) {
+        return con -> {
+            con.setRequestProperty("api-key", kissflowApiKey);
+            if (body != null) HttpTransport.writeBody(con, contentType, body);
+        };
     }
 
 
@@ -0,0 +1,64 @@
+package uk.gov.education.honours;
+
+// What the pipeline code records through: times stages into the current MetricsSink and, when the JVM has Flight
+// Recorder and the jfr source root is built in, emits each stage as a StageEvent too, so slow stages show up in a
+// recording alongside GC and I/O.
+//
+//     try (Metrics.Span ignored = metrics.time("pdf.load")) { ... }
+//
+// The span is never read in the block, so methods timing with one suppress javac's "try" lint warning.
+class Metrics {
+    private static final StageRecorder STAGES = stageRecorder();
+
+    interface StageRecorder {
+        Object begin(String stage);
+
+        void end(Object event);
+    }
+
+    private volatile MetricsSink sink = MetricsSink.NONE;
+
+    void setSink(MetricsSink sink) {
+        this.sink = sink == null ? MetricsSink.NONE : sink;
+    }
+
+    Span time(String stage) {
+        return new Span(stage);
+    }
+
+    void count(String counter, long amount) {
+        sink.count(counter, amount);
+    }
+
+    // for a latency measured elsewhere; no jfr event
+    void recordLatency(String stage, long nanos) {
+        sink.recordLatency(stage, nanos);
+    }
+
+    class Span implements AutoCloseable {
+        private final String stage;
+        private final long start = System.nanoTime();
+        private final Object event;
+
+        private Span(String stage) {
+            this.stage = stage;
+            this.event = STAGES == null ? null : STAGES.begin(stage);
+        }
+
+        @Override
+        public void close() {
+            sink.recordLatency(stage, System.nanoTime() - start);
+            if (event != null) STAGES.end(event);
+        }
+    }
+
+    // jdk.jfr only exists from 8u262 on, so older Java 8 runtimes, like builds without the jfr root, just skip the events
+    private static StageRecorder stageRecorder() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return (StageRecorder) Class.forName("uk.gov.education.honours.StageEvent$Recorder").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package uk.gov.education.honours;
+
+// Receives stage timings and counters from the upload, export and import pipelines; see InMemoryMetrics for one that
+// keeps latency histograms. Called from many threads at once, so implementations must be thread-safe and cheap.
+public interface MetricsSink {
+    MetricsSink NONE = new MetricsSink() {
+        @Override
+        public void recordLatency(String stage, long nanos) {
+        }
+
+        @Override
+        public void count(String counter, long amount) {
+        }
+    };
+
+    void recordLatency(String stage, long nanos);
+
+    void count(String counter, long amount);
+}
@@ -4,6 +4,8 @@ import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.fit.pdfdom.PDFDomTree;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
 import org.json.simple.parser.ParseException;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -16,21 +18,40 @@ import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 public class NominationUploader {
 
+    private final Metrics metrics = new Metrics();
+    private final HttpTransport transport = new HttpTransport(metrics);
     private final KissflowApi kissflow;
     private final FileUploader fileUploader;
+    private int maxConcurrentUploads = 4;
+    private TextExtraction textExtraction = TextExtraction.PDF_DOM;
+    private ParseCache parseCache = null;
+    private UploadJournal uploadJournal = null;
+    private Executor asyncExecutor = null;
+    private ExecutorService defaultAsyncExecutor = null;
+    private boolean asyncShutDown = false;
+
+    // PDF_DOM renders the pdf to an html dom with pdf2dom and reads word positions back from the css;
+    // POSITIONAL_STREAM reads the same positions straight from pdfbox without building the dom. PDF_DOM stays the
+    // default until POSITIONAL_STREAM has matched it on real nominations, not just PositionalTextExtractorTest's
+    public enum TextExtraction { PDF_DOM, POSITIONAL_STREAM }
 
     public NominationUploader(String kissflowApiKey, String fileApiKey) {
-        kissflow = new KissflowApi(kissflowApiKey);
-        fileUploader = new FileUploader(fileApiKey);
+        kissflow = new KissflowApi(kissflowApiKey, transport, metrics);
+        fileUploader = new FileUploader(fileApiKey, transport, metrics);
     }
 
     private static final List<String> boilerplate = Arrays.asList(
@@ -43,47 +64,371 @@ public class NominationUploader {
         return kissflow.getShortlist(directorate, round);
     }
 
-    public void importShortlist(File shortlistFile) throws IOException, ParseException, InvalidFormatException {
-        kissflow.importShortlist(shortlistFile);
+    public ImportReport importShortlist(File shortlistFile) throws IOException, ParseException, InvalidFormatException {
+        return kissflow.importShortlist(shortlistFile);
+    }
+
+    // for large .xlsx shortlists: reads rows as the sheet is parsed rather than loading the whole workbook
+    public ImportReport importShortlistStreaming(File shortlistFile) throws IOException, ParseException, InvalidFormatException {
+        return kissflow.importShortlistStreaming(shortlistFile);
     }
 
     public XSSFWorkbook getFinalShortlist(String round) throws IOException, ParseException {
         return kissflow.getFinalShortlist(round);
     }
 
+    // streaming variants of getShortlist and getFinalShortlist, for large rounds
+    public void writeShortlist(String directorate, String round, OutputStream out) throws IOException, ParseException {
+        kissflow.writeShortlist(directorate, round, out);
+    }
+
+    public void writeFinalShortlist(String round, OutputStream out) throws IOException, ParseException {
+        kissflow.writeFinalShortlist(round, out);
+    }
+
+    @SuppressWarnings("try")
     public Result uploadNomination(Path nominationPdf, String targetFileName, Map<String,File> fileBucket) throws Exception {
-        String filename = nominationPdf.toAbsolutePath().toString();
-        List<Element> words = getWordsFromPdf(filename);
-        List<Phrase> allPhrases = bunchWordsIntoPhrases(words);
+        try (Metrics.Span ignored = metrics.time("nomination")) {
+            return doUploadNomination(nominationPdf, targetFileName, fileBucket);
+        }
+    }
 
-        List<Section> res = structurePhrasesIntoSections(allPhrases);
+    private Result doUploadNomination(Path nominationPdf, String targetFileName, Map<String,File> fileBucket) throws Exception {
+        String filename = nominationPdf.toAbsolutePath().toString();
+        List<Section> res = parseNomination(nominationPdf);
 
         List<FileNameAndPath> evidenceFiles = filterToEvidenceFiles(res, fileBucket);
+
+        String nominationSha256 = uploadJournal == null ? null : ContentHash.sha256Hex(nominationPdf);
+        if (nominationSha256 != null) {
+            String submitted = uploadJournal.submission(nominationSha256);
+            if (submitted != null) return new Result(evidenceFiles.size(), nomineeName(targetFileName), submitted);
+        }
+
+        List<FileNameAndPath> filesToSend = new ArrayList<>(evidenceFiles);
+        filesToSend.add(new FileNameAndPath(targetFileName, filename));
+        List<String> urls = sendFiles(filesToSend);
+
         List<FileNameAndPath> uploadedFiles = new ArrayList<>();
-        for (FileNameAndPath fnap : evidenceFiles) {
-            String url = fileUploader.sendFile(fnap.path, fnap.name);
-            uploadedFiles.add(new FileNameAndPath(fnap.name, url));
+        for (int i = 0; i < evidenceFiles.size(); i++) {
+            uploadedFiles.add(new FileNameAndPath(evidenceFiles.get(i).name, urls.get(i)));
         }
 
-        String nom = fileUploader.sendFile(filename, targetFileName);
+        String nom = urls.get(evidenceFiles.size());
         String nextStepUri = kissflow.sendToKissflow(res, targetFileName, nom, uploadedFiles);
+        if (nominationSha256 != null) uploadJournal.recordSubmission(nominationSha256, nextStepUri);
 
-        Matcher matcher = Pattern.compile("Honours nomination web form submitted for (.+)\\.pdf").matcher(targetFileName);
+        return new Result(evidenceFiles.size(), nomineeName(targetFileName), nextStepUri);
+    }
+
+    // Non-blocking variants of the calls above, for callers such as a web front end that shouldn't tie up one of
+    // their own threads per request. The blocking work runs on the async executor.
+    public CompletableFuture<Result> uploadNominationAsync(Path nominationPdf, String targetFileName, Map<String,File> fileBucket) {
+        return async(() -> uploadNomination(nominationPdf, targetFileName, fileBucket));
+    }
+
+    public CompletableFuture<XSSFWorkbook> getShortlistAsync(String directorate, String round) {
+        return async(() -> getShortlist(directorate, round));
+    }
+
+    public CompletableFuture<ImportReport> importShortlistAsync(File shortlistFile) {
+        return async(() -> importShortlist(shortlistFile));
+    }
+
+    public CompletableFuture<ImportReport> importShortlistStreamingAsync(File shortlistFile) {
+        return async(() -> importShortlistStreaming(shortlistFile));
+    }
+
+    public CompletableFuture<XSSFWorkbook> getFinalShortlistAsync(String round) {
+        return async(() -> getFinalShortlist(round));
+    }
+
+    // the future completes once the whole workbook has been written to out
+    public CompletableFuture<Void> writeShortlistAsync(String directorate, String round, OutputStream out) {
+        return async(() -> {
+            writeShortlist(directorate, round, out);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> writeFinalShortlistAsync(String round, OutputStream out) {
+        return async(() -> {
+            writeFinalShortlist(round, out);
+            return null;
+        });
+    }
+
+    // the batch runs on its own pool of maxConcurrentNominations threads; the async executor only waits for it
+    public CompletableFuture<BatchResult> uploadNominationsAsync(Path nominationDirectory, Map<String,File> fileBucket, int maxConcurrentNominations) {
+        return async(() -> uploadNominations(nominationDirectory, fileBucket, maxConcurrentNominations));
+    }
+
+    public CompletableFuture<BatchResult> uploadNominationsAsync(List<Path> nominationPdfs, Map<String,File> fileBucket, int maxConcurrentNominations) {
+        return async(() -> uploadNominations(nominationPdfs, fileBucket, maxConcurrentNominations));
+    }
+
+    // where the *Async calls run; by default a pool of ASYNC_THREADS daemon threads, as each call holds its thread
+    // for the whole network conversation
+    public synchronized void setAsyncExecutor(Executor asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    // Stops the default async pool once the calls already given to it are done; *Async calls made afterwards complete
+    // with RejectedExecutionException. An executor passed to setAsyncExecutor is left to whoever owns it.
+    public synchronized void shutdownAsync() {
+        asyncShutDown = true;
+        if (defaultAsyncExecutor != null) defaultAsyncExecutor.shutdown();
+    }
+
+    private static final int ASYNC_THREADS = 64;
+
+    private synchronized Executor asyncExecutor() {
+        if (asyncExecutor == null) {
+            if (asyncShutDown) throw new RejectedExecutionException("The async executor has been shut down");
+            AtomicInteger threadNumber = new AtomicInteger();
+            defaultAsyncExecutor = Executors.newFixedThreadPool(ASYNC_THREADS, runnable -> {
+                Thread thread = new Thread(runnable, "nomination-uploader-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            asyncExecutor = defaultAsyncExecutor;
+        }
+        return asyncExecutor;
+    }
+
+    private <T> CompletableFuture<T> async(Callable<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            asyncExecutor().execute(() -> {
+                try {
+                    future.complete(call.call());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    // where stage timings and counters go, e.g. an InMemoryMetrics; stages are also emitted as jfr events
+    public void setMetricsSink(MetricsSink sink) {
+        metrics.setSink(sink);
+    }
+
+    public void setTextExtraction(TextExtraction textExtraction) {
+        this.textExtraction = textExtraction;
+    }
+
+    // keeps parsed nominations on disk, so retries and re-runs of the same pdf skip parsing
+    public void setParseCache(Path directory, long maxBytes) throws IOException {
+        this.parseCache = new ParseCache(directory, maxBytes);
+    }
+
+    // remembers uploaded files and submitted nominations by content hash, so a re-run picks up where it stopped
+    public void setUploadJournal(Path journalFile) throws IOException {
+        this.uploadJournal = new UploadJournal(journalFile);
+        fileUploader.setJournal(uploadJournal);
+    }
+
+    // how long the Honours record list is reused across exports before it is fetched again; imports always fetch it
+    public void setRecordCacheTtl(long ttl, TimeUnit unit) {
+        kissflow.setRecordCacheTtl(unit.toMillis(ttl));
+    }
+
+    // how many Honours records exports and imports fetch per request
+    public void setRecordPageSize(int recordPageSize) {
+        kissflow.setRecordPageSize(recordPageSize);
+    }
+
+    // how many shortlist rows importShortlist writes back at once, and at most how many per second (0 = no limit)
+    public void setImportWriteBack(int maxInFlight, double maxRequestsPerSecond) {
+        kissflow.setImportWriteBack(maxInFlight, maxRequestsPerSecond);
+    }
+
+    // where requests go, e.g. a local stub server; the defaults are the live Kissflow and upload hosts
+    public void setBaseUrls(String kissflowBaseUrl, String fileUploadBaseUrl) {
+        kissflow.setBaseUrl(kissflowBaseUrl);
+        fileUploader.setBaseUrl(fileUploadBaseUrl);
+    }
+
+    public void setHttpTimeouts(long connectTimeout, long readTimeout, TimeUnit unit) {
+        transport.setTimeouts((int) unit.toMillis(connectTimeout), (int) unit.toMillis(readTimeout));
+    }
 
+    // evidence files of at least thresholdBytes are uploaded in 5 MiB parts, `concurrency` parts at a time
+    public void setMultipartUpload(long thresholdBytes, int concurrency) {
+        fileUploader.setMultipartUpload(thresholdBytes, concurrency);
+    }
+
+    public void setMaxConcurrentUploads(int maxConcurrentUploads) {
+        this.maxConcurrentUploads = Math.max(1, maxConcurrentUploads);
+    }
 
-        return new Result(evidenceFiles.size(), matcher.find() ? matcher.group(1) : targetFileName, nextStepUri);
+    // uploads all files of one nomination at once; the returned urls are in the same order as the files
+    private List<String> sendFiles(List<FileNameAndPath> files) throws Exception {
+        return fileUploader.sendFiles(files, maxConcurrentUploads);
+    }
+
+    @SuppressWarnings("try")
+    private List<Section> parseNomination(Path nominationPdf) throws Exception {
+        // the cache key covers the extraction engine too, as the two engines need not agree to the last decimal
+        String cacheKey = parseCache == null ? null : parseCache.key(nominationPdf, textExtraction.name());
+        if (cacheKey != null) {
+            List<Section> cached = parseCache.get(cacheKey);
+            metrics.count(cached != null ? "parse.cache.hits" : "parse.cache.misses", 1);
+            if (cached != null) return cached;
+        }
+
+        String filename = nominationPdf.toAbsolutePath().toString();
+        List<Word> words = textExtraction == TextExtraction.POSITIONAL_STREAM
+                ? PositionalTextExtractor.getWordsFromPdf(filename, metrics)
+                : getWordsFromPdf(filename, metrics);
+        metrics.count("parse.words", words.size());
+
+        List<Phrase> allPhrases;
+        try (Metrics.Span ignored = metrics.time("parse.phrases")) {
+            allPhrases = bunchWordsIntoPhrases(words);
+        }
+
+        List<Section> res;
+        try (Metrics.Span ignored = metrics.time("parse.sections")) {
+            res = structurePhrasesIntoSections(allPhrases);
+        }
+
+        if (cacheKey != null) parseCache.put(cacheKey, res);
+        return res;
+    }
+
+    public BatchResult uploadNominations(Path nominationDirectory, Map<String,File> fileBucket, int maxConcurrentNominations) throws IOException, InterruptedException {
+        List<Path> nominationPdfs;
+        try (Stream<Path> files = Files.list(nominationDirectory)) {
+            nominationPdfs = files
+                    .filter(x -> x.getFileName().toString().toLowerCase().endsWith(".pdf"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        return uploadNominations(nominationPdfs, fileBucket, maxConcurrentNominations);
+    }
+
+    public BatchResult uploadNominations(List<Path> nominationPdfs, Map<String,File> fileBucket, int maxConcurrentNominations) throws InterruptedException {
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, maxConcurrentNominations));
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (Path nominationPdf : nominationPdfs) {
+                String targetFileName = nominationPdf.getFileName().toString();
+                futures.add(executor.submit(() ->
+                        uploadOrFailure(targetFileName, () -> uploadNomination(nominationPdf, targetFileName, fileBucket))));
+            }
+
+            List<Result> results = new ArrayList<>();
+            for (Future<Result> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Nomination task failed unexpectedly", e.getCause());
+                }
+            }
+            return new BatchResult(results, System.nanoTime() - start);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // One bad nomination must not stop the rest of the batch, so whatever it throws becomes a failed Result. That
+    // includes StackOverflowError and OutOfMemoryError, which pdfbox can hit on a single malformed pdf; any other
+    // VirtualMachineError means the JVM itself can't be trusted, and stops the batch.
+    static Result uploadOrFailure(String targetFileName, Callable<Result> upload) {
+        try {
+            return upload.call();
+        } catch (Exception e) {
+            return Result.failure(nomineeName(targetFileName), e);
+        } catch (StackOverflowError | OutOfMemoryError e) {
+            return Result.failure(nomineeName(targetFileName), new Exception(e.toString(), e));
+        } catch (VirtualMachineError e) {
+            throw e;
+        } catch (Throwable t) {
+            return Result.failure(nomineeName(targetFileName), new Exception(t.toString(), t));
+        }
+    }
+
+    // usage: NominationUploader <kissflowApiKey> <fileApiKey> <nominationDir> <evidenceDir> [maxConcurrentNominations]
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.err.println("Usage: NominationUploader <kissflowApiKey> <fileApiKey> <nominationDir> <evidenceDir> [maxConcurrentNominations]");
+            System.exit(2);
+        }
+        // the JDK keeps at most 5 idle connections per host unless told otherwise, fewer than a batch upload uses.
+        // It's a JVM-wide setting read when the first connection is made, so it belongs to the launcher, not the library
+        if (System.getProperty("http.maxConnections") == null) System.setProperty("http.maxConnections", "20");
+
+        Map<String, File> fileBucket = new HashMap<>();
+        try (Stream<Path> files = Files.list(Paths.get(args[3]))) {
+            files.filter(Files::isRegularFile).forEach(x -> fileBucket.put(x.getFileName().toString(), x.toFile()));
+        }
+        int maxConcurrentNominations = args.length > 4 ? Integer.parseInt(args[4]) : 4;
+
+        BatchResult batch = new NominationUploader(args[0], args[1]).uploadNominations(Paths.get(args[2]), fileBucket, maxConcurrentNominations);
+        for (Result r : batch.results) {
+            System.out.println(r.success
+                    ? String.format("OK     %s (%d supporting documents) %s", r.nominationFileName, r.supportDocumentCount, r.nextStepUri)
+                    : String.format("FAILED %s: %s", r.nominationFileName, r.error));
+        }
+        System.out.println(batch);
+        if (batch.failed > 0) System.exit(1);
+    }
+
+    private static String nomineeName(String targetFileName) {
+        Matcher matcher = Pattern.compile("Honours nomination web form submitted for (.+)\\.pdf").matcher(targetFileName);
+        return matcher.find() ? matcher.group(1) : targetFileName;
     }
 
     public static class Result {
-        public final boolean success = true; // no error handling, so if the function returns it's successful
+        public final boolean success;
         public final int supportDocumentCount;
         public final String nominationFileName;
         public final String nextStepUri;
+        public final Exception error;
 
         public Result(int supportDocumentCount, String nominationFileName, String nextStepUri) {
+            this(true, supportDocumentCount, nominationFileName, nextStepUri, null);
+        }
+
+        private Result(boolean success, int supportDocumentCount, String nominationFileName, String nextStepUri, Exception error) {
+            this.success = success;
             this.supportDocumentCount = supportDocumentCount;
             this.nominationFileName = nominationFileName;
             this.nextStepUri = nextStepUri;
+            this.error = error;
+        }
+
+        static Result failure(String nominationFileName, Exception error) {
+            return new Result(false, 0, nominationFileName, null, error);
+        }
+    }
+
+    public static class BatchResult {
+        public final List<Result> results;
+        public final int succeeded;
+        public final int failed;
+        public final long elapsedMillis;
+
+        BatchResult(List<Result> results, long elapsedNanos) {
+            this.results = Collections.unmodifiableList(results);
+            this.succeeded = (int) results.stream().filter(x -> x.success).count();
+            this.failed = results.size() - succeeded;
+            this.elapsedMillis = elapsedNanos / 1_000_000;
+        }
+
+        public double nominationsPerMinute() {
+            return elapsedMillis == 0 ? 0 : results.size() * 60_000.0 / elapsedMillis;
+        }
+
+        public String toString() {
+            return String.format("%d nominations (%d succeeded, %d failed) in %.1fs: %.1f nominations/minute",
+                    results.size(), succeeded, failed, elapsedMillis / 1000.0, nominationsPerMinute());
         }
     }
 
@@ -111,31 +456,43 @@ public class NominationUploader {
     }
 
 
-    private static List<Element> getWordsFromPdf(String filename) throws IOException, ParserConfigurationException, XPathExpressionException {
-        PDDocument pdf = PDDocument.load(new java.io.File(filename));
-        PDFDomTree parser = new PDFDomTree();
-        Document xmlDoc = parser.createDOM(pdf);
+    @SuppressWarnings("try")
+    static List<Word> getWordsFromPdf(String filename, Metrics metrics) throws IOException, ParserConfigurationException, XPathExpressionException {
+        PDDocument loaded;
+        try (Metrics.Span ignored = metrics.time("pdf.load")) {
+            loaded = PDDocument.load(new java.io.File(filename));
+        }
 
-        XPath xPath = XPathFactory.newInstance().newXPath();
-        NodeList nodes = (NodeList)xPath.evaluate("//div[contains(concat(\" \", normalize-space(@class), \" \"), \" p \")]", xmlDoc.getDocumentElement(), XPathConstants.NODESET);
+        Document xmlDoc;
+        try (PDDocument pdf = loaded; Metrics.Span ignored = metrics.time("pdf.dom")) {
+            PDFDomTree parser = new PDFDomTree();
+            xmlDoc = parser.createDOM(pdf);
+        }
 
+        NodeList nodes;
+        try (Metrics.Span ignored = metrics.time("pdf.xpath")) {
+            XPath xPath = XPathFactory.newInstance().newXPath();
+            nodes = (NodeList)xPath.evaluate("//div[contains(concat(\" \", normalize-space(@class), \" \"), \" p \")]", xmlDoc.getDocumentElement(), XPathConstants.NODESET);
+        }
 
-        List<Element> res = new ArrayList<>();
+
+        List<Word> res = new ArrayList<>();
         for (int i = 0; i < nodes.getLength(); i++) {
-            res.add((Element) nodes.item(i));
+            Element e = (Element) nodes.item(i);
+            res.add(new Word(WordParams.parse(e.getAttribute("style")), e.getTextContent()));
         }
         return res;
     }
 
-    private static List<Phrase> bunchWordsIntoPhrases(List<Element> words) {
+    static List<Phrase> bunchWordsIntoPhrases(List<Word> words) {
         List<Phrase> allPhrases = new ArrayList<>();
         List<String> currentPhrase = new ArrayList<>();
         WordParams lastWord = null;
         WordParams firstWordOfCurrentPhrase = null;
 
 
-        for (Element e : words) {
-            WordParams wp = WordParams.parse(e.getAttribute("style"));
+        for (Word word : words) {
+            WordParams wp = word.params;
 
             if (!currentPhrase.isEmpty() && !wp.continues(lastWord) && lastWord != null && firstWordOfCurrentPhrase != null) {
                 allPhrases.add(new Phrase(firstWordOfCurrentPhrase, lastWord, String.join(" ",currentPhrase)));
@@ -144,7 +501,7 @@ public class NominationUploader {
 
             if (currentPhrase.isEmpty()) firstWordOfCurrentPhrase = wp;
 
-            currentPhrase.add(e.getTextContent());
+            currentPhrase.add(word.text);
             lastWord =wp;
         }
 
@@ -153,11 +510,11 @@ public class NominationUploader {
     }
 
 
-    private static List<Section> structurePhrasesIntoSections(List<Phrase> allPhrases) {
+    static List<Section> structurePhrasesIntoSections(List<Phrase> allPhrases) {
         List<Section> res = new ArrayList<>();
         Section currentSection = null;
 
-        List<Phrase> currentLabels = new ArrayList<>();
+        ColumnIndex currentLabels = new ColumnIndex();
         boolean currentlyGatheringHeaders = false;
         Phrase previousValuePhrase = null;
 
@@ -166,18 +523,16 @@ public class NominationUploader {
             if (boilerplate.contains(phrase.phrase)) continue;
 
             if (phrase.keyWord.getType() == 0) {
-                OptionalInt bestFittingLabel = IntStream.range(0, currentLabels.size())
-                        .filter(i -> phrase.keyWord.horizontallyAlinged(currentLabels.get(i).keyWord))
-                        .reduce((a, b) -> b);
+                Phrase bestFittingLabel = currentLabels.labelAbove(phrase.keyWord);
 
-                if (!bestFittingLabel.isPresent()) {
+                if (bestFittingLabel == null) {
                     currentSection.getCurrentQuestion().addSimpleAnswer(phrase.phrase);
                 }
                 else {
                     if (previousValuePhrase != null && !phrase.onSameLineAs(previousValuePhrase)) {
                         currentSection.getCurrentQuestion().addAnswer();
                     }
-                    currentSection.getCurrentQuestion().addToLastAnswer(currentLabels.get(bestFittingLabel.getAsInt()).phrase, phrase.phrase);
+                    currentSection.getCurrentQuestion().addToLastAnswer(bestFittingLabel.phrase, phrase.phrase);
                     previousValuePhrase = phrase;
                 }
             } else {
@@ -229,6 +584,43 @@ class Section {
         return q;
     }
 
+    JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        json.put("label", label);
+        JSONArray qs = new JSONArray();
+        for (Question q : questions.values()) {
+            JSONObject question = new JSONObject();
+            question.put("label", q.label);
+            question.put("simpleAnswer", q.simpleAnswer);
+            JSONArray answers = new JSONArray();
+            for (Map<String, String> answer : q.answers) answers.add(new JSONObject(answer));
+            question.put("answers", answers);
+            qs.add(question);
+        }
+        json.put("questions", qs);
+        return json;
+    }
+
+    static Section fromJson(JSONObject json) {
+        Section section = new Section((String) json.get("label"));
+        for (Object o : (JSONArray) json.get("questions")) {
+            JSONObject question = (JSONObject) o;
+            Question q = new Question();
+            q.label = (String) question.get("label");
+            q.simpleAnswer = (String) question.get("simpleAnswer");
+            for (Object answer : (JSONArray) question.get("answers")) {
+                Map<String, String> a = new HashMap<>();
+                for (Object e : ((JSONObject) answer).entrySet()) {
+                    Map.Entry<?, ?> entry = (Map.Entry<?, ?>) e;
+                    a.put((String) entry.getKey(), (String) entry.getValue());
+                }
+                q.answers.add(a);
+            }
+            section.questions.put(q.label, q);
+        }
+        return section;
+    }
+
     Question getCurrentQuestion() {
         if (currentQuestion == null) addQuestion("Details");
         return currentQuestion;
@@ -279,6 +671,16 @@ class Section {
     }
 }
 
+class Word {
+    final WordParams params;
+    final String text;
+
+    Word(WordParams params, String text) {
+        this.params = params;
+        this.text = text;
+    }
+}
+
 class Phrase {
     WordParams keyWord;
     private WordParams lastWord;
@@ -304,20 +706,91 @@ class Phrase {
     }
 }
 
-class WordParams {
-    Double fontSize;
-    String fontWeight;
-    Double top;
-    Double left;
-    Double width;
+// Column labels of the table currently being read, indexed by their left coordinate so that a value can be
+// matched to the label above it without scanning every label.
+class ColumnIndex {
+    private static final double TOLERANCE = 0.001; // as in WordParams.horizontallyAlinged
+
+    private final NavigableMap<Double, Column> columnsByLeft = new TreeMap<>();
+    private int added = 0;
+
+    void add(Phrase label) {
+        columnsByLeft.put(label.keyWord.left, new Column(label, added++));
+    }
+
+    void clear() {
+        columnsByLeft.clear();
+        added = 0;
+    }
+
+    // the most recently added label that is horizontally aligned with the word, or null if there is none
+    Phrase labelAbove(WordParams word) {
+        Column best = null;
+        for (Column column : columnsByLeft.subMap(word.left - 2 * TOLERANCE, true, word.left + 2 * TOLERANCE, true).values()) {
+            if (word.horizontallyAlinged(column.label.keyWord) && (best == null || column.order > best.order)) best = column;
+        }
+        return best == null ? null : best.label;
+    }
+
+    private static class Column {
+        final Phrase label;
+        final int order;
 
+        Column(Phrase label, int order) {
+            this.label = label;
+            this.order = order;
+        }
+    }
+}
+
+class WordParams {
+    double fontSize;
+    String fontWeight; // always interned
+    double top;
+    double left;
+    double width;
+
+    // Reads the pdf2dom style attribute in a single pass, without regexes or substrings. Each property takes its
+    // first occurrence that is followed by a valid value, the same as Matcher.find would, e.g.
+    // "font-size:([\\.0-9]+)pt" or "font-weight:([^;]+)"
     static WordParams parse(String style) {
         WordParams res = new WordParams();
-        res.fontSize = Double.parseDouble(findOr(fontSizePattern, style, "0"));
-        res.fontWeight = findOr(fontWeightPattern, style, "normal");
-        res.top = Double.parseDouble(findOr(topPattern, style, "0"));
-        res.left = Double.parseDouble(findOr(leftPattern, style, "0"));
-        res.width = Double.parseDouble(findOr(widthPattern, style, "0"));
+        res.fontWeight = NORMAL;
+
+        int found = 0;
+        int length = style.length();
+        for (int i = 0; i < length && found != ALL; i++) {
+            int end;
+            switch (style.charAt(i)) {
+                case 'f':
+                    if ((found & FONT_SIZE) == 0 && (end = numberEnd(style, i, "font-size:")) >= 0) {
+                        res.fontSize = parseNumber(style, i + "font-size:".length(), end);
+                        found |= FONT_SIZE;
+                    } else if ((found & FONT_WEIGHT) == 0 && (end = weightEnd(style, i)) >= 0) {
+                        res.fontWeight = weight(style, i + "font-weight:".length(), end);
+                        found |= FONT_WEIGHT;
+                    }
+                    break;
+                case 't':
+                    if ((found & TOP) == 0 && (end = numberEnd(style, i, "top:")) >= 0) {
+                        res.top = parseNumber(style, i + "top:".length(), end);
+                        found |= TOP;
+                    }
+                    break;
+                case 'l':
+                    if ((found & LEFT) == 0 && (end = numberEnd(style, i, "left:")) >= 0) {
+                        res.left = parseNumber(style, i + "left:".length(), end);
+                        found |= LEFT;
+                    }
+                    break;
+                case 'w':
+                    if ((found & WIDTH) == 0 && (end = numberEnd(style, i, "width:")) >= 0) {
+                        res.width = parseNumber(style, i + "width:".length(), end);
+                        found |= WIDTH;
+                    }
+                    break;
+            }
+        }
 
         return res;
     }
@@ -352,24 +825,75 @@ class WordParams {
         else return 1;
     }
 
-    private static String findOr(Pattern p, String text, String valIfNotFound) {
-        Matcher matcher = p.matcher(text);
-        if (matcher.find()) {
-            return matcher.group(1);
-        } else {
-            return valIfNotFound;
-        }
+    private static boolean vagueEq(double x, double y) {
+        return Math.abs(x - y) < 0.001;
     }
 
-    private boolean vagueEq(Double x, Double y) {
-        return Math.abs(x - y) < 0.001;
+    // end of the number in "<key>[.0-9]+pt" starting at from, or -1 if there is no such match there
+    private static int numberEnd(String style, int from, String key) {
+        if (!style.startsWith(key, from)) return -1;
+
+        int start = from + key.length();
+        int i = start;
+        while (i < style.length() && (style.charAt(i) == '.' || (style.charAt(i) >= '0' && style.charAt(i) <= '9'))) i++;
+
+        return i > start && style.startsWith("pt", i) ? i : -1;
+    }
+
+    // end of the value in "font-weight:[^;]+" starting at from, or -1 if there is no such match there
+    private static int weightEnd(String style, int from) {
+        if (!style.startsWith("font-weight:", from)) return -1;
+
+        int start = from + "font-weight:".length();
+        int i = start;
+        while (i < style.length() && style.charAt(i) != ';') i++;
+
+        return i > start ? i : -1;
     }
 
-    private static Pattern fontSizePattern = Pattern.compile("font-size:([\\.0-9]+)pt");
-    private static Pattern fontWeightPattern = Pattern.compile("font-weight:([^;]+)");
-    private static Pattern topPattern = Pattern.compile("top:([\\.0-9]+)pt");
-    private static Pattern leftPattern = Pattern.compile("left:([\\.0-9]+)pt");
-    private static Pattern widthPattern = Pattern.compile("width:([\\.0-9]+)pt");
+    private static String weight(String style, int start, int end) {
+        if (end - start == NORMAL.length() && style.startsWith(NORMAL, start)) return NORMAL;
+        if (end - start == BOLD.length() && style.startsWith(BOLD, start)) return BOLD;
+        return style.substring(start, end).intern();
+    }
+
+    // exact for up to 15 significant digits: both the mantissa and the power of ten are representable, so the
+    // single division is correctly rounded just like Double.parseDouble. Anything else goes to Double.parseDouble.
+    private static double parseNumber(String style, int start, int end) {
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean seenDot = false;
+
+        for (int i = start; i < end; i++) {
+            char c = style.charAt(i);
+            if (c == '.') {
+                if (seenDot) return Double.parseDouble(style.substring(start, end));
+                seenDot = true;
+            } else {
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+                if (seenDot) scale++;
+            }
+        }
+
+        if (digits == 0 || digits > 15) return Double.parseDouble(style.substring(start, end));
+        return scale == 0 ? mantissa : mantissa / POWERS_OF_TEN[scale];
+    }
+
+    private static final String NORMAL = "normal";
+    private static final String BOLD = "bold";
+
+    private static final int FONT_SIZE = 1;
+    private static final int FONT_WEIGHT = 2;
+    private static final int TOP = 4;
+    private static final int LEFT = 8;
+    private static final int WIDTH = 16;
+    private static final int ALL = FONT_SIZE | FONT_WEIGHT | TOP | LEFT | WIDTH;
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15
+    };
 }
 
 
@@ -0,0 +1,120 @@
+package uk.gov.education.honours;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+// On-disk cache of parsed nominations, keyed by the content of the pdf. Least recently used entries are evicted
+// once the cache grows beyond maxBytes.
+class ParseCache {
+    // bump whenever a parser change alters the sections produced for the same pdf
+    static final String PARSER_VERSION = "1";
+
+    private final Path directory;
+    private final long maxBytes;
+
+    ParseCache(Path directory, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+    }
+
+    String key(Path pdf, String variant) throws IOException {
+        return ContentHash.sha256Hex(pdf) + "-" + PARSER_VERSION + "-" + variant;
+    }
+
+    List<Section> get(String key) {
+        Path entry = directory.resolve(key + ".json");
+        if (!Files.exists(entry)) return null;
+
+        try (Reader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(entry), StandardCharsets.UTF_8))) {
+            List<Section> res = new ArrayList<>();
+            for (Object o : (JSONArray) new JSONParser().parse(reader)) res.add(Section.fromJson((JSONObject) o));
+
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            return res;
+        } catch (IOException | ParseException | ClassCastException | NullPointerException e) {
+            // unreadable entries are treated as a miss and rewritten after parsing
+            try {
+                Files.deleteIfExists(entry);
+            } catch (IOException ignored) {
+            }
+            return null;
+        }
+    }
+
+    void put(String key, List<Section> sections) throws IOException {
+        JSONArray json = new JSONArray();
+        for (Section section : sections) json.add(section.toJson());
+
+        Path tmp = Files.createTempFile(directory, key, ".tmp");
+        try {
+            Files.write(tmp, json.toJSONString().getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, directory.resolve(key + ".json"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+
+        evict();
+    }
+
+    // Sizes and times are read once up front: get() touches entries from other threads without the lock, and a
+    // sort whose keys change under it can fail with "Comparison method violates its general contract".
+    private synchronized void evict() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (file.getFileName().toString().endsWith(".json")) entries.add(new Entry(file, sizeOf(file), lastModified(file)));
+            }
+        }
+
+        long total = 0;
+        for (Entry entry : entries) total += entry.size;
+        if (total <= maxBytes) return;
+
+        entries.sort(Comparator.comparingLong(x -> x.lastModified));
+        for (Entry entry : entries) {
+            if (total <= maxBytes) break;
+            total -= entry.size;
+            Files.deleteIfExists(entry.path);
+        }
+    }
+
+    private static class Entry {
+        final Path path;
+        final long size;
+        final long lastModified;
+
+        Entry(Path path, long size, long lastModified) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private static long sizeOf(Path entry) {
+        try {
+            return Files.size(entry);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static long lastModified(Path entry) {
+        try {
+            return Files.getLastModifiedTime(entry).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
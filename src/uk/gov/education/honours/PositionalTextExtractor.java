@@ -0,0 +1,142 @@
+package uk.gov.education.honours;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDFontDescriptor;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.apache.pdfbox.text.TextPosition;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Groups pdfbox glyphs into words the same way pdf2dom groups them into "p" boxes, so the positions match what
+// WordParams.parse reads back out of the PDFDomTree css, without building the dom or going via strings.
+// Like pdf2dom, this overrides processTextPosition and so skips PDFTextStripper's suppression of overlapping
+// duplicate glyphs: text made bold by printing it twice comes out twice on both paths. Diacritics are merged
+// into the glyph they sit on, as pdf2dom does.
+class PositionalTextExtractor extends PDFTextStripper {
+    private final List<Word> words = new ArrayList<>();
+    private final StringBuilder currentText = new StringBuilder();
+
+    private TextPosition pendingDiacritic = null;
+    private TextPosition firstGlyph = null;
+    private TextPosition lastGlyph = null;
+    private float fontSize;
+    private String fontWeight;
+
+    private PositionalTextExtractor() throws IOException {
+        super();
+    }
+
+    @SuppressWarnings("try")
+    static List<Word> getWordsFromPdf(String filename, Metrics metrics) throws IOException {
+        PDDocument loaded;
+        try (Metrics.Span ignored = metrics.time("pdf.load")) {
+            loaded = PDDocument.load(new File(filename));
+        }
+
+        try (PDDocument pdf = loaded; Metrics.Span ignored = metrics.time("pdf.extract")) {
+            return getWordsFromPdf(pdf);
+        }
+    }
+
+    static List<Word> getWordsFromPdf(PDDocument pdf) throws IOException {
+        PositionalTextExtractor extractor = new PositionalTextExtractor();
+        // glyphs are consumed in processTextPosition, so the text this produces is just page separators
+        extractor.getText(pdf);
+        return extractor.words;
+    }
+
+    @Override
+    protected void processTextPosition(TextPosition glyph) {
+        if (glyph.isDiacritic()) {
+            pendingDiacritic = glyph;
+            return;
+        }
+
+        String c = glyph.getUnicode();
+        if (c == null || c.trim().isEmpty()) {
+            finishWord();
+            return;
+        }
+
+        if (pendingDiacritic != null) {
+            if (glyph.contains(pendingDiacritic)) {
+                glyph.mergeDiacritic(pendingDiacritic);
+                c = glyph.getUnicode();
+            }
+            pendingDiacritic = null;
+        }
+
+        float size = glyph.getFontSizeInPt();
+        String weight = fontWeight(glyph.getFont());
+
+        if (lastGlyph != null) {
+            float distX = glyph.getXDirAdj() - (lastGlyph.getXDirAdj() + lastGlyph.getWidthDirAdj());
+            float distY = glyph.getYDirAdj() - lastGlyph.getYDirAdj();
+
+            boolean split = distX > 1.0f || distX < -6.0f || Math.abs(distY) > 1.0f
+                    || size != fontSize || !weight.equals(fontWeight);
+            if (split) finishWord();
+        }
+
+        if (firstGlyph == null) {
+            firstGlyph = glyph;
+            fontSize = size;
+            fontWeight = weight;
+        }
+        currentText.append(c);
+        lastGlyph = glyph;
+    }
+
+    @Override
+    protected void endPage(PDPage page) throws IOException {
+        finishWord();
+        super.endPage(page);
+    }
+
+    private void finishWord() {
+        if (firstGlyph == null) return;
+
+        WordParams wp = new WordParams();
+        wp.fontSize = fontSize;
+        wp.fontWeight = fontWeight;
+        wp.top = firstGlyph.getYDirAdj() - ascent(firstGlyph);
+        wp.left = firstGlyph.getXDirAdj();
+        wp.width = lastGlyph.getXDirAdj() + lastGlyph.getWidthDirAdj() - firstGlyph.getXDirAdj();
+        words.add(new Word(wp, currentText.toString()));
+
+        currentText.setLength(0);
+        firstGlyph = null;
+        lastGlyph = null;
+    }
+
+    // pdf2dom puts the top of a box the font's ascent above the baseline, falling back to its bounding box
+    private static float ascent(TextPosition glyph) {
+        PDFont font = glyph.getFont();
+        if (font == null) return glyph.getHeightDir();
+
+        PDFontDescriptor descriptor = font.getFontDescriptor();
+        float ascent = descriptor == null ? 0 : descriptor.getAscent() / 1000 * glyph.getYScale();
+        if (ascent != 0) return ascent;
+
+        try {
+            return font.getBoundingBox().getUpperRightY() / 1000 * glyph.getYScale();
+        } catch (IOException e) {
+            return glyph.getHeightDir();
+        }
+    }
+
+    private static String fontWeight(PDFont font) {
+        if (font == null) return "normal";
+
+        PDFontDescriptor descriptor = font.getFontDescriptor();
+        if (descriptor != null && (descriptor.isForceBold() || descriptor.getFontWeight() >= 600)) return "bold";
+
+        String name = font.getName();
+        return name != null && name.toLowerCase().contains("bold") ? "bold" : "normal";
+    }
+}
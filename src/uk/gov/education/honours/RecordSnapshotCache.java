@@ -0,0 +1,99 @@
+package uk.gov.education.honours;
+
+import org.json.simple.parser.ParseException;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+// Keeps recently fetched Kissflow responses for ttlMillis. Callers asking for a key that is being fetched wait for
+// that fetch instead of starting their own, and a failed fetch is not cached.
+class RecordSnapshotCache {
+    interface Loader {
+        Object load() throws IOException, ParseException;
+    }
+
+    private final ConcurrentHashMap<String, Snapshot> snapshots = new ConcurrentHashMap<>();
+    private volatile long ttlMillis;
+
+    RecordSnapshotCache(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    void setTtlMillis(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    boolean isEnabled() {
+        return ttlMillis > 0;
+    }
+
+    Object get(String key, Loader loader) throws IOException, ParseException {
+        while (true) {
+            Snapshot current = snapshots.get(key);
+            if (current != null && !current.isExpired()) return current.await();
+
+            Snapshot fresh = new Snapshot();
+            boolean claimed = current == null
+                    ? snapshots.putIfAbsent(key, fresh) == null
+                    : snapshots.replace(key, current, fresh);
+            if (!claimed) continue; // someone else started a fetch in the meantime, so wait for theirs
+
+            try {
+                Object value = loader.load();
+                fresh.complete(value);
+                return value;
+            } catch (Throwable t) {
+                // errors too, or everyone waiting on this fetch would wait forever
+                snapshots.remove(key, fresh);
+                fresh.fail(t);
+                throw t;
+            }
+        }
+    }
+
+    // drops one key, including a fetch of it still in flight
+    void invalidate(String key) {
+        snapshots.remove(key);
+    }
+
+    // drops everything, including fetches still in flight, so the next caller sees the result of a write
+    void invalidateAll() {
+        snapshots.clear();
+    }
+
+    private class Snapshot {
+        private final CompletableFuture<Object> value = new CompletableFuture<>();
+        private volatile long loadedAt;
+
+        void complete(Object o) {
+            loadedAt = System.currentTimeMillis();
+            value.complete(o);
+        }
+
+        void fail(Throwable t) {
+            value.completeExceptionally(t);
+        }
+
+        boolean isExpired() {
+            return value.isDone() && System.currentTimeMillis() - loadedAt >= ttlMillis;
+        }
+
+        Object await() throws IOException, ParseException {
+            try {
+                return value.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for Kissflow records", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) throw (IOException) cause;
+                if (cause instanceof ParseException) throw (ParseException) cause;
+                if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                if (cause instanceof Error) throw (Error) cause;
+                throw new IOException(cause);
+            }
+        }
+    }
+}
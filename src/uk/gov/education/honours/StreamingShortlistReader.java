@@ -0,0 +1,89 @@
+package uk.gov.education.honours;
+
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.SAXHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+// Reads the first sheet of an xlsx file with POI's event model, handing over the first `columns` cells of each row
+// as formatted strings while the sheet xml is parsed, so a number comes over as Excel shows it. Missing cells are
+// empty strings, and rows with no cells at all are not handed over. Only the current row is held in memory.
+class StreamingShortlistReader implements XSSFSheetXMLHandler.SheetContentsHandler {
+    interface RowHandler {
+        // rowNum is 0-based, as in Row.getRowNum
+        void handle(int rowNum, String[] cells) throws IOException;
+    }
+
+    private final RowHandler handler;
+    private final String[] cells;
+    private int nextColumn;
+
+    private StreamingShortlistReader(int columns, RowHandler handler) {
+        this.handler = handler;
+        this.cells = new String[columns];
+    }
+
+    static void read(File xlsx, int columns, RowHandler handler) throws IOException, InvalidFormatException {
+        try (OPCPackage pkg = OPCPackage.open(xlsx, PackageAccess.READ)) {
+            XSSFReader reader = new XSSFReader(pkg);
+            ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+
+            XMLReader parser = SAXHelper.newXMLReader();
+            parser.setContentHandler(new XSSFSheetXMLHandler(reader.getStylesTable(), null, strings,
+                    new StreamingShortlistReader(columns, handler), new DataFormatter(), false));
+
+            try (InputStream sheet = reader.getSheetsData().next()) {
+                parser.parse(new InputSource(sheet));
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (InvalidFormatException e) {
+            throw e;
+        } catch (OpenXML4JException | SAXException | ParserConfigurationException e) {
+            throw new IOException("Could not read " + xlsx.getName() + " as a spreadsheet", e);
+        }
+    }
+
+    @Override
+    public void startRow(int rowNum) {
+        Arrays.fill(cells, "");
+        nextColumn = 0;
+    }
+
+    @Override
+    public void endRow(int rowNum) {
+        try {
+            handler.handle(rowNum, cells.clone());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+        int column = cellReference == null ? nextColumn : new CellReference(cellReference).getCol();
+        nextColumn = column + 1;
+        if (column < cells.length) cells[column] = formattedValue == null ? "" : formattedValue;
+    }
+
+    @Override
+    public void headerFooter(String text, boolean isHeader, String tagName) {
+    }
+}
@@ -0,0 +1,70 @@
+package uk.gov.education.honours;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+// Append-only record of completed upload steps, keyed by content hash, so that a retried or interrupted batch
+// reuses files that already reached the CDN and doesn't submit the same nomination twice.
+// Each line is "<step>:<sha256>\t<value>", appended with a single write.
+class UploadJournal {
+    private static final String FILE = "file:";
+    private static final String SUBMISSION = "submission:";
+
+    private final Path journalFile;
+    private final Map<String, String> entries = new HashMap<>();
+
+    UploadJournal(Path journalFile) throws IOException {
+        this.journalFile = journalFile;
+
+        if (Files.exists(journalFile)) {
+            byte[] content = Files.readAllBytes(journalFile);
+
+            // a last line without its newline was cut short by a crash mid-write, so its value can't be trusted;
+            // it is cut off so the next append doesn't complete it
+            int complete = content.length;
+            while (complete > 0 && content[complete - 1] != '\n') complete--;
+            if (complete < content.length) {
+                try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.WRITE)) {
+                    channel.truncate(complete);
+                }
+            }
+
+            for (String line : new String(content, 0, complete, StandardCharsets.UTF_8).split("\n")) {
+                String[] split = line.split("\t");
+                if (split.length == 2 && !split[1].isEmpty()) entries.put(split[0], split[1]);
+            }
+        }
+    }
+
+    String fileUrl(String sha256) {
+        return get(FILE + sha256);
+    }
+
+    void recordFileUrl(String sha256, String url) throws IOException {
+        put(FILE + sha256, url);
+    }
+
+    String submission(String sha256) {
+        return get(SUBMISSION + sha256);
+    }
+
+    void recordSubmission(String sha256, String nextStepUri) throws IOException {
+        put(SUBMISSION + sha256, nextStepUri);
+    }
+
+    private synchronized String get(String key) {
+        return entries.get(key);
+    }
+
+    private synchronized void put(String key, String value) throws IOException {
+        Files.write(journalFile, (key + "\t" + value + "\n").getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        entries.put(key, value);
+    }
+}
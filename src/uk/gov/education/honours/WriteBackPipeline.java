@@ -0,0 +1,130 @@
+package uk.gov.education.honours;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+// Sends import write-backs with at most maxInFlight requests outstanding and, optionally, no more than
+// maxRequestsPerSecond started per second. submit blocks while the pipeline is full, so rows are read no faster
+// than they can be written. Rows for the same record are written one after another in sheet order, so a /done and
+// an /update for one record never race. Every row ends up in the report, whether it succeeded or not.
+class WriteBackPipeline implements AutoCloseable {
+    interface WriteBack {
+        ImportReport.Status send() throws Exception;
+    }
+
+    private final int maxInFlight;
+    private final long nanosBetweenRequests;
+    private final Semaphore inFlight;
+    private final ExecutorService executor;
+    private final List<ImportReport.RowOutcome> outcomes = new ArrayList<>();
+    private final Map<String, CompletableFuture<Void>> lastWriteById = new HashMap<>();
+    private long nextRequestAt = System.nanoTime();
+
+    WriteBackPipeline(int maxInFlight, double maxRequestsPerSecond) {
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.nanosBetweenRequests = maxRequestsPerSecond > 0 ? (long) (1_000_000_000 / maxRequestsPerSecond) : 0;
+        this.inFlight = new Semaphore(this.maxInFlight);
+        this.executor = Executors.newFixedThreadPool(this.maxInFlight);
+    }
+
+    void submit(int row, String id, WriteBack writeBack) throws InterruptedIOException {
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while importing row " + row);
+        }
+
+        // the rate limit is taken when the request is about to go, so a row held back behind an earlier one for the
+        // same record still starts no sooner than its turn
+        Runnable send = () -> {
+            try {
+                awaitRateLimit();
+                record(new ImportReport.RowOutcome(row, id, writeBack.send(), null));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                record(new ImportReport.RowOutcome(row, id, ImportReport.Status.FAILED, new InterruptedIOException("Interrupted while importing row " + row)));
+            } catch (Exception e) {
+                record(new ImportReport.RowOutcome(row, id, ImportReport.Status.FAILED, e));
+            } finally {
+                inFlight.release();
+            }
+        };
+
+        if (id == null) {
+            executor.execute(send);
+            return;
+        }
+        // a later row for the same record waits for the earlier one without holding a thread, and the record is
+        // forgotten once its last write is done
+        synchronized (lastWriteById) {
+            CompletableFuture<Void> previous = lastWriteById.get(id);
+            CompletableFuture<Void> write = previous == null
+                    ? CompletableFuture.runAsync(send, executor)
+                    : previous.exceptionally(e -> null).thenRunAsync(send, executor);
+            lastWriteById.put(id, write);
+            write.whenComplete((x, e) -> {
+                synchronized (lastWriteById) {
+                    lastWriteById.remove(id, write);
+                }
+            });
+        }
+    }
+
+    void skip(int row, String id) {
+        record(new ImportReport.RowOutcome(row, id, ImportReport.Status.SKIPPED, null));
+    }
+
+    void fail(int row, String id, Exception e) {
+        record(new ImportReport.RowOutcome(row, id, ImportReport.Status.FAILED, e));
+    }
+
+    // waits for the outstanding write-backs and reports all rows in sheet order
+    ImportReport finish() throws InterruptedIOException {
+        try {
+            inFlight.acquire(maxInFlight);
+            inFlight.release(maxInFlight);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the import to finish");
+        }
+
+        synchronized (outcomes) {
+            List<ImportReport.RowOutcome> rows = new ArrayList<>(outcomes);
+            rows.sort(Comparator.comparingInt(x -> x.row));
+            return new ImportReport(rows);
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private void record(ImportReport.RowOutcome outcome) {
+        synchronized (outcomes) {
+            outcomes.add(outcome);
+        }
+    }
+
+    private void awaitRateLimit() throws InterruptedException {
+        if (nanosBetweenRequests == 0) return;
+
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long startAt = Math.max(now, nextRequestAt);
+            nextRequestAt = startAt + nanosBetweenRequests;
+            waitNanos = startAt - now;
+        }
+        if (waitNanos > 0) Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+    }
+}
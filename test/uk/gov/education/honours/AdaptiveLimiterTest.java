@@ -0,0 +1,73 @@
+package uk.gov.education.honours;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveLimiterTest {
+    @Test
+    public void growsWhileResponsesStayFast() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(4, 1, 64);
+        for (int i = 0; i < 100; i++) {
+            limiter.acquire();
+            limiter.onSuccess(1_000_000);
+        }
+        assertTrue(limiter.limit() > 4);
+        assertTrue(limiter.limit() <= 64);
+    }
+
+    @Test
+    public void holdsWhileResponsesAreSlow() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(4, 1, 64);
+        limiter.acquire();
+        limiter.onSuccess(1_000_000);
+        for (int i = 0; i < 20; i++) {
+            limiter.acquire();
+            limiter.onSuccess(50_000_000);
+        }
+        assertEquals(4, limiter.limit());
+    }
+
+    @Test
+    public void halvesOnOverloadButNotBelowTheMinimum() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(16, 2, 64);
+        limiter.acquire();
+        limiter.onOverload();
+        assertEquals(8, limiter.limit());
+
+        // failures of requests that were in flight together count once
+        limiter.acquire();
+        limiter.onOverload();
+        assertEquals(8, limiter.limit());
+
+        for (int i = 0; i < 5; i++) {
+            Thread.sleep(110);
+            limiter.acquire();
+            limiter.onOverload();
+        }
+        assertEquals(2, limiter.limit());
+    }
+
+    @Test
+    public void blocksAtTheLimitUntilARequestFinishes() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(1, 1, 1);
+        limiter.acquire();
+
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiter = new Thread(() -> {
+            try {
+                limiter.acquire();
+                acquired.countDown();
+            } catch (Exception ignored) {
+            }
+        });
+        waiter.start();
+
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+        limiter.onIgnore();
+        assertTrue(acquired.await(1, TimeUnit.SECONDS));
+    }
+}
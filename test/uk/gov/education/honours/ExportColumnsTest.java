@@ -0,0 +1,106 @@
+package uk.gov.education.honours;
+
+import org.json.simple.parser.JSONParser;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ExportColumnsTest {
+    @Test
+    public void addressesAreSplitAcrossThreeColumns() throws Exception {
+        assertAddress("{\"Street\":\"1 High Street\"}", "1 High Street", "", "");
+        assertAddress("{\"Street\":\"Flat 2\\n1 High Street\"}", "Flat 2", "1 High Street", "");
+        // as in the hand-written export, a third line only appears once there are four or more
+        assertAddress("{\"Street\":\"Flat 2\\nThe Mill\\n1 High Street\"}", "Flat 2", "The Mill", "");
+        assertAddress("{\"Street\":\"Flat 2\\nThe Mill\\n1 High Street\\nHolbeck\"}", "Flat 2", "The Mill", "1 High Street");
+        assertAddress("{}", "", "", "");
+    }
+
+    @Test
+    public void theYearIsTakenFromTheRound() throws Exception {
+        assertEquals("2019", finalShortlist("{\"Round\":\"2019 NY\"}", "Year"));
+        assertEquals("2020", finalShortlist("{\"Round\":\"BD 2020\"}", "Year"));
+        assertEquals("", finalShortlist("{\"Round\":\"NY\"}", "Year"));
+        assertEquals("", finalShortlist("{}", "Year"));
+    }
+
+    @Test
+    public void yearsGoToPostOrGradeByWhetherTheNominationIsAState() throws Exception {
+        String state = "{\"Is_this_a_state_nomination\":\"Yes\",\"Years\":12.0}";
+        assertEquals("", finalShortlist(state, "Length of Service in Post"));
+        assertEquals("12", finalShortlist(state, "Length of Service in Grade"));
+
+        String notState = "{\"Is_this_a_state_nomination\":\"No\",\"Years\":7.6}";
+        assertEquals("7", finalShortlist(notState, "Length of Service in Post"));
+        assertEquals("", finalShortlist(notState, "Length of Service in Grade"));
+
+        assertEquals("0", finalShortlist("{}", "Length of Service in Post"));
+    }
+
+    @Test
+    public void dateOfBirthAndYesNoFieldsFollowTheirFlags() throws Exception {
+        String approximate = "{\"Is_Date_of_Birth_approximate\":\"Yes\",\"Date_of_Birth\":\"1960\",\"Secure_Address\":\"Yes\",\"Voluntary_work\":\"No\"}";
+        assertEquals("", finalShortlist(approximate, "DOB"));
+        assertEquals("1960", finalShortlist(approximate, "Approx DoB"));
+        assertEquals("Y", finalShortlist(approximate, "SecureAddress"));
+        assertEquals("N", finalShortlist(approximate, "Voluntary Work"));
+
+        String exact = "{\"Date_of_Birth\":\"01/02/1960\",\"Voluntary_work\":\"Yes\"}";
+        assertEquals("01/02/1960", finalShortlist(exact, "DOB"));
+        assertEquals("", finalShortlist(exact, "Approx DoB"));
+        assertEquals("N", finalShortlist(exact, "SecureAddress"));
+        assertEquals("Y", finalShortlist(exact, "Voluntary Work"));
+    }
+
+    @Test
+    public void nationalityAndNominationTypeAreDerived() throws Exception {
+        assertEquals("N", finalShortlist("{\"Nationality\":\"British\"}", "Foreign National?"));
+        assertEquals("Y", finalShortlist("{\"Nationality\":\"French\"}", "Foreign National?"));
+        assertEquals("Public - Central", finalShortlist("{\"Nomination_Type\":\"Public - Central\"}", "Public"));
+        assertEquals("", finalShortlist("{\"Nomination_Type\":\"Departmental\"}", "Public"));
+    }
+
+    @Test
+    public void shortlistRowsCarryRanksAndTheCaseLink() throws Exception {
+        List<HonoursRecord> records = records("[{\"Id\":\"Hon7\",\"Departmental_shortlist\":\"A\",\"Directorate_shortlist\":2.0,\"Round\":\"2019 NY\"},{}]");
+        List<String[]> rows = KissflowApi.SHORTLIST_COLUMNS.mapAll(records);
+        List<String> headers = Arrays.asList(KissflowApi.SHORTLIST_COLUMNS.headers());
+
+        assertEquals(2, rows.size());
+        String[] first = rows.get(0);
+        assertEquals("A", first[headers.indexOf("Departmental rank")]);
+        assertEquals("2", first[headers.indexOf("Directorate rank")]);
+        assertEquals("2019 NY", first[headers.indexOf("Round")]);
+        assertTrue(first[headers.indexOf("Case link")].endsWith("/Hon7"));
+
+        String[] empty = rows.get(1);
+        assertEquals("", empty[headers.indexOf("Departmental rank")]);
+        assertEquals("0", empty[headers.indexOf("Directorate rank")]);
+        assertEquals(headers.size(), empty.length);
+    }
+
+    private static void assertAddress(String json, String line1, String line2, String line3) throws Exception {
+        assertEquals(line1, finalShortlist(json, "Address 1"));
+        assertEquals(line2, finalShortlist(json, "Address 2"));
+        assertEquals(line3, finalShortlist(json, "Address 3"));
+    }
+
+    // the final shortlist's value in the named column for one record; Rating needs a number, so one is supplied
+    private static String finalShortlist(String json, String header) throws Exception {
+        String withRating = json.equals("{}") ? "{\"Departmental_shortlist\":1.0}" : json.replaceFirst("\\{", "{\"Departmental_shortlist\":1.0,");
+        String[] row = KissflowApi.FINAL_SHORTLIST_COLUMNS.map(records("[" + withRating + "]").get(0));
+        int column = Arrays.asList(KissflowApi.FINAL_SHORTLIST_COLUMNS.headers()).indexOf(header);
+        assertTrue("no column " + header, column >= 0);
+        return row[column];
+    }
+
+    private static List<HonoursRecord> records(String json) throws Exception {
+        List<HonoursRecord> records = new ArrayList<>();
+        new JSONParser().parse(json, new HonoursRecordParser(records::add));
+        return records;
+    }
+}
@@ -0,0 +1,61 @@
+package uk.gov.education.honours;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Latency and errors a stub server adds in front of its handlers, changeable while it runs. Errors are spread
+// evenly (every n-th request) rather than at random, so a run fails the same requests each time.
+class FaultInjector {
+    private final AtomicLong requests = new AtomicLong();
+    private volatile long latencyMillis = 0;
+    private volatile long failEvery = 0;
+    private volatile int errorStatus = 503;
+
+    // errorRate is the fraction of requests answered with errorStatus instead of reaching the handler
+    void set(long latencyMillis, double errorRate, int errorStatus) {
+        this.latencyMillis = latencyMillis;
+        this.failEvery = errorRate <= 0 ? 0 : Math.max(1, Math.round(1 / errorRate));
+        this.errorStatus = errorStatus;
+    }
+
+    void set(long latencyMillis, double errorRate) {
+        set(latencyMillis, errorRate, 503);
+    }
+
+    HttpHandler wrap(HttpHandler handler) {
+        return exchange -> {
+            long latency = latencyMillis;
+            if (latency > 0) {
+                try {
+                    Thread.sleep(latency);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            long every = failEvery;
+            if (every > 0 && requests.incrementAndGet() % every == 0) fail(exchange, errorStatus);
+            else handler.handle(exchange);
+        };
+    }
+
+    private static void fail(HttpExchange exchange, int status) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buffer = new byte[65536];
+            while (in.read(buffer) != -1) {
+            }
+        }
+
+        byte[] body = "{\"error\":\"injected failure\"}".getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package uk.gov.education.honours;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class FileUploaderTest {
+    private StubUploadServer server;
+    private FileUploader uploader;
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StubUploadServer();
+        uploader = new FileUploader("pub-key");
+        uploader.setBaseUrl(server.baseUrl());
+        uploader.setMultipartUpload(10 * 1024 * 1024, 3);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+        if (file != null) Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void smallFileIsSentInOnePost() throws Exception {
+        randomFile(1024 * 1024);
+
+        String url = uploader.sendFile(file.toString(), "small.bin");
+
+        assertTrue(url.endsWith("/nth/0/"));
+        assertEquals(1, server.singleUploads.get());
+        assertEquals(0, server.partRequests.get());
+        assertEquals(1024 * 1024, onlyUploadedFile().length);
+    }
+
+    @Test
+    public void largeFileIsSentInParts() throws Exception {
+        byte[] content = randomFile(12 * 1024 * 1024 + 17);
+
+        uploader.sendFile(file.toString(), "large.bin");
+
+        assertEquals(0, server.singleUploads.get());
+        assertEquals(3, server.partRequests.get());
+        assertEquals(1, server.groupRequests.get());
+        assertArrayEquals(content, onlyUploadedFile());
+    }
+
+    @Test
+    public void mappedTransferSendsTheSameBytes() throws Exception {
+        byte[] content = randomFile(12 * 1024 * 1024 + 17);
+        uploader.setMappedTransfer(true);
+
+        uploader.sendFile(file.toString(), "large.bin");
+
+        assertEquals(3, server.partRequests.get());
+        assertArrayEquals(content, onlyUploadedFile());
+    }
+
+    @Test
+    public void failedPartsAreRetried() throws Exception {
+        byte[] content = randomFile(12 * 1024 * 1024);
+        server.failNextParts(2);
+
+        uploader.sendFile(file.toString(), "large.bin");
+
+        assertEquals(5, server.partRequests.get());
+        assertArrayEquals(content, onlyUploadedFile());
+    }
+
+    @Test
+    public void partFailingEveryAttemptFailsTheUpload() throws Exception {
+        randomFile(12 * 1024 * 1024);
+        server.failNextParts(Integer.MAX_VALUE);
+
+        try {
+            uploader.sendFile(file.toString(), "large.bin");
+            fail("expected the upload to fail");
+        } catch (HttpException e) {
+            assertEquals(500, e.statusCode);
+        }
+        assertEquals(0, server.groupRequests.get());
+    }
+
+    @Test
+    public void nominationFilesShareOneGroupRequest() throws Exception {
+        Path journalFile = Files.createTempFile("journal", ".txt");
+        List<Path> paths = new ArrayList<>();
+        try {
+            List<NominationUploader.FileNameAndPath> files = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                Path path = Files.createTempFile("evidence", ".bin");
+                Files.write(path, new byte[]{(byte) i});
+                paths.add(path);
+                files.add(new NominationUploader.FileNameAndPath("evidence" + i, path.toString()));
+            }
+            uploader.setJournal(new UploadJournal(journalFile));
+            String alreadySent = uploader.sendFile(paths.get(1).toString(), "evidence1");
+
+            List<String> urls = uploader.sendFiles(files, 2);
+
+            assertEquals(alreadySent, urls.get(1));
+            assertTrue(urls.get(0).endsWith("/nth/0/"));
+            assertTrue(urls.get(2).endsWith("/nth/1/"));
+            assertEquals(urls.get(0).replace("/nth/0/", ""), urls.get(2).replace("/nth/1/", ""));
+            assertEquals(3, server.singleUploads.get());
+            assertEquals(2, server.groupRequests.get());
+        } finally {
+            for (Path path : paths) Files.deleteIfExists(path);
+            Files.deleteIfExists(journalFile);
+        }
+    }
+
+    @Test
+    public void aFileSharedByConcurrentNominationsIsUploadedOnce() throws Exception {
+        Path journalFile = Files.createTempFile("journal", ".txt");
+        List<Path> paths = new ArrayList<>();
+        ExecutorService nominations = Executors.newFixedThreadPool(2);
+        try {
+            for (int i = 0; i < 3; i++) {
+                Path path = Files.createTempFile("evidence", ".bin");
+                Files.write(path, new byte[]{(byte) i});
+                paths.add(path);
+            }
+            uploader.setJournal(new UploadJournal(journalFile));
+            server.faults.set(300, 0); // long enough for the second nomination to find the first one's upload running
+
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<List<String>>> results = new ArrayList<>();
+            for (int n = 1; n <= 2; n++) {
+                List<NominationUploader.FileNameAndPath> files = new ArrayList<>();
+                files.add(new NominationUploader.FileNameAndPath("shared", paths.get(0).toString()));
+                files.add(new NominationUploader.FileNameAndPath("own", paths.get(n).toString()));
+                results.add(nominations.submit(() -> {
+                    start.await();
+                    return uploader.sendFiles(files, 2);
+                }));
+            }
+            start.countDown();
+
+            List<String> first = results.get(0).get(10, TimeUnit.SECONDS);
+            List<String> second = results.get(1).get(10, TimeUnit.SECONDS);
+            assertEquals(first.get(0), second.get(0));
+            assertNotEquals(first.get(1), second.get(1));
+            assertEquals(3, server.singleUploads.get());
+            assertEquals(3, server.files().size());
+        } finally {
+            nominations.shutdownNow();
+            for (Path path : paths) Files.deleteIfExists(path);
+            Files.deleteIfExists(journalFile);
+        }
+    }
+
+    private byte[] randomFile(int size) throws IOException {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        file = Files.createTempFile("upload", ".bin");
+        Files.write(file, content);
+        return content;
+    }
+
+    private byte[] onlyUploadedFile() {
+        assertEquals(1, server.files().size());
+        return server.files().iterator().next();
+    }
+}
@@ -0,0 +1,87 @@
+package uk.gov.education.honours;
+
+import org.json.simple.parser.JSONParser;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HonoursRecordParserTest {
+    @Test
+    public void nestedObjectsAndArraysAreOnlyMarkedPresent() throws Exception {
+        List<HonoursRecord> records = parse("[{\"Id\":\"Hon1\","
+                + "\"Assigned To-Directorate Shortlist\":{\"Name\":\"Jo\",\"Roles\":[\"a\",{\"Id\":\"inner\"}]},"
+                + "\"Assigned To\":[{\"Id\":\"x\"},[1,2]],"
+                + "\"Last_Name\":\"Brown\"}]");
+
+        assertEquals(1, records.size());
+        HonoursRecord record = records.get(0);
+        assertEquals("Hon1", record.get("Id")); // not overwritten by the nested "Id"s
+        assertTrue(record.containsKey("Assigned To-Directorate Shortlist"));
+        assertSame(HonoursRecord.NESTED, record.get("Assigned To-Directorate Shortlist"));
+        assertSame(HonoursRecord.NESTED, record.get("Assigned To"));
+        assertEquals("Brown", record.get("Last_Name")); // fields after a nested value are still read
+        assertFalse(record.containsKey("Assigned To-Department Shortlist"));
+    }
+
+    @Test
+    public void unknownFieldsAreSkipped() throws Exception {
+        List<HonoursRecord> records = parse("[{\"Comments\":\"not kept\",\"Extra\":{\"Title\":\"inner\"},\"Title\":\"Ms\"}]");
+
+        HonoursRecord record = records.get(0);
+        assertEquals("Ms", record.get("Title"));
+        assertNull(record.get("Comments"));
+        assertFalse(record.containsKey("Comments"));
+        assertEquals("default", record.getOrDefault("Extra", "default"));
+    }
+
+    @Test
+    public void unicodeEscapesAreDecoded() throws Exception {
+        List<HonoursRecord> records = parse("[{\"First_Name\":\"Ren\\u00e9e\",\"Long_citation\":\"Line one\\nLine \\\"two\\\"\"}]");
+
+        assertEquals("Renée", records.get(0).get("First_Name"));
+        assertEquals("Line one\nLine \"two\"", records.get(0).get("Long_citation"));
+    }
+
+    @Test
+    public void numbersKeepTheTypesJsonSimpleGivesThem() throws Exception {
+        List<HonoursRecord> records = parse("[{\"Directorate_shortlist\":3.0,\"Years\":12,\"Is_this_a_state_nomination\":true,\"Postcode\":null}]");
+
+        HonoursRecord record = records.get(0);
+        assertEquals(3.0, (Double) record.get("Directorate_shortlist"), 0);
+        assertEquals(12L, record.get("Years")); // whole numbers without a point are Longs
+        assertEquals(Boolean.TRUE, record.get("Is_this_a_state_nomination"));
+        assertTrue(record.containsKey("Postcode"));
+        assertNull(record.getOrDefault("Postcode", "default"));
+    }
+
+    @Test
+    public void anEmptyPageHasNoRecords() throws Exception {
+        List<HonoursRecord> records = new ArrayList<>();
+        HonoursRecordParser parser = new HonoursRecordParser(records::add);
+        new JSONParser().parse("[]", parser);
+
+        assertTrue(records.isEmpty());
+        assertEquals(0, parser.count());
+    }
+
+    @Test
+    public void recordsAreHandedOverOneAtATimeAndCounted() throws Exception {
+        List<HonoursRecord> records = new ArrayList<>();
+        HonoursRecordParser parser = new HonoursRecordParser(records::add);
+        new JSONParser().parse("[{\"Id\":\"Hon1\"},{},{\"Id\":\"Hon3\"}]", parser);
+
+        assertEquals(3, parser.count());
+        assertEquals("Hon1", records.get(0).get("Id"));
+        assertFalse(records.get(1).containsKey("Id"));
+        assertEquals("Hon3", records.get(2).get("Id"));
+    }
+
+    private static List<HonoursRecord> parse(String json) throws Exception {
+        List<HonoursRecord> records = new ArrayList<>();
+        new JSONParser().parse(json, new HonoursRecordParser(records::add));
+        return records;
+    }
+}
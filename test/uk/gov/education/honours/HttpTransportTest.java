@@ -0,0 +1,286 @@
+package uk.gov.education.honours;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class HttpTransportTest {
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile int failuresBeforeSuccess = 0;
+    private volatile int failureStatus = 503;
+    private volatile String retryAfter = null;
+    private volatile String failureBody = "busy";
+    private volatile boolean gzip = false;
+    private volatile long delayMillis = 0;
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            try (InputStream in = exchange.getRequestBody()) {
+                while (in.read() != -1) {
+                }
+            }
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            boolean fail = requests.incrementAndGet() <= failuresBeforeSuccess;
+            if (fail && retryAfter != null) exchange.getResponseHeaders().set("Retry-After", retryAfter);
+            if (delayMillis > 0) {
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException ignored) {
+                }
+            }
+
+            byte[] body = (fail ? failureBody : "{\"ok\":true}").getBytes(StandardCharsets.UTF_8);
+            if (gzip) {
+                ByteArrayOutputStream zipped = new ByteArrayOutputStream();
+                try (OutputStream out = new GZIPOutputStream(zipped)) {
+                    out.write(body);
+                }
+                body = zipped.toByteArray();
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            }
+            exchange.sendResponseHeaders(fail ? failureStatus : 200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void idempotentCallsAreRetriedWhenTheHostIsOverloaded() throws Exception {
+        failuresBeforeSuccess = 2;
+
+        String body = new HttpTransport().send(url(), "GET", connection -> {
+        }, HttpTransportTest::readAll);
+
+        assertEquals("{\"ok\":true}", body);
+        assertEquals(3, requests.get());
+    }
+
+    @Test
+    public void postsAreNotRetried() throws Exception {
+        failuresBeforeSuccess = 1;
+
+        try {
+            new HttpTransport().send(url(), "POST", HttpTransport.body("text/plain", "x"), HttpTransportTest::readAll);
+            fail("expected the 503 to be thrown");
+        } catch (HttpException e) {
+            assertEquals(503, e.statusCode);
+            assertEquals("busy", e.responseBody);
+        }
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void clientErrorsAreNotRetried() throws Exception {
+        failuresBeforeSuccess = 1;
+        failureStatus = 404;
+
+        try {
+            new HttpTransport().send(url(), "GET", connection -> {
+            }, HttpTransportTest::readAll);
+            fail("expected the 404 to be thrown");
+        } catch (HttpException e) {
+            assertEquals(404, e.statusCode);
+        }
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void retryAfterIsRespected() throws Exception {
+        failuresBeforeSuccess = 1;
+        failureStatus = 429;
+        retryAfter = "1";
+
+        long start = System.nanoTime();
+        new HttpTransport().send(url(), "PUT", HttpTransport.body("text/plain", "x"), HttpTransportTest::readAll);
+
+        assertTrue(System.nanoTime() - start >= 1_000_000_000L);
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void overloadLowersTheHostLimit() throws Exception {
+        failuresBeforeSuccess = 1;
+        HttpTransport transport = new HttpTransport();
+        int before = transport.limitFor(url());
+
+        transport.send(url(), "GET", connection -> {
+        }, HttpTransportTest::readAll);
+
+        assertTrue(transport.limitFor(url()) < before);
+    }
+
+    @Test
+    public void gzipBodiesAreDecoded() throws Exception {
+        gzip = true;
+
+        String body = new HttpTransport().send(url(), "GET", connection -> {
+        }, HttpTransportTest::readAll);
+
+        assertEquals("{\"ok\":true}", body);
+    }
+
+    @Test
+    public void errorBodiesAreDecodedAndKeptUpTo2kb() throws Exception {
+        failuresBeforeSuccess = 1;
+        failureStatus = 400;
+        gzip = true;
+        StringBuilder longBody = new StringBuilder();
+        for (int i = 0; i < 1000; i++) longBody.append("bad ");
+        failureBody = longBody.toString();
+
+        try {
+            new HttpTransport().send(url(), "POST", HttpTransport.body("text/plain", "x"), HttpTransportTest::readAll);
+            fail("expected the 400 to be thrown");
+        } catch (HttpException e) {
+            assertEquals(400, e.statusCode);
+            assertTrue(e.responseBody.startsWith("bad bad"));
+            assertTrue(e.responseBody.length() <= 2048);
+            assertTrue(e.getMessage().startsWith("POST " + url() + " returned 400: bad"));
+        }
+    }
+
+    @Test
+    public void aSlowResponseTimesOut() throws Exception {
+        delayMillis = 1000;
+        HttpTransport transport = new HttpTransport();
+        transport.setTimeouts(1000, 100);
+
+        long start = System.nanoTime();
+        try {
+            transport.send(url(), "POST", HttpTransport.body("text/plain", "x"), HttpTransportTest::readAll);
+            fail("expected the read to time out");
+        } catch (SocketTimeoutException expected) {
+        }
+        assertTrue(System.nanoTime() - start < 900_000_000L);
+    }
+
+    @Test
+    public void connectionsAreReusedAfterErrorsAndSuccesses() throws Exception {
+        failuresBeforeSuccess = 3;
+        failureStatus = 404;
+        HttpTransport transport = new HttpTransport();
+
+        for (int i = 0; i < 6; i++) {
+            try {
+                transport.send(url(), "GET", connection -> {
+                }, HttpTransportTest::readAll);
+            } catch (HttpException e) {
+                assertEquals(404, e.statusCode);
+            }
+        }
+
+        assertEquals(6, requests.get());
+        assertEquals(1, clientPorts.size());
+    }
+
+    @Test
+    public void theHostSlotIsHeldUntilTheBodyHasBeenRead() throws Exception {
+        HttpTransport transport = new HttpTransport();
+        int limit = transport.limitFor(url());
+        CountDownLatch reading = new CountDownLatch(limit);
+        CountDownLatch finishReading = new CountDownLatch(1);
+        ExecutorService callers = Executors.newCachedThreadPool();
+        try {
+            List<Future<String>> calls = new ArrayList<>();
+            for (int i = 0; i < limit; i++) {
+                calls.add(callers.submit(() -> transport.send(url(), "GET", connection -> {
+                }, body -> {
+                    reading.countDown();
+                    await(finishReading);
+                    return readAll(body);
+                })));
+            }
+            assertTrue(reading.await(5, TimeUnit.SECONDS));
+
+            Future<String> waiting = callers.submit(() -> transport.send(url(), "GET", connection -> {
+            }, HttpTransportTest::readAll));
+            Thread.sleep(200);
+            assertEquals(limit, requests.get());
+
+            finishReading.countDown();
+            assertEquals("{\"ok\":true}", waiting.get(5, TimeUnit.SECONDS));
+            for (Future<String> call : calls) assertEquals("{\"ok\":true}", call.get(5, TimeUnit.SECONDS));
+            assertEquals(limit + 1, requests.get());
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void anErrorWhilePreparingGivesTheSlotBack() throws Exception {
+        HttpTransport transport = new HttpTransport();
+        ExecutorService caller = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> attempts = caller.submit(() -> {
+                for (int i = 0; i < transport.limitFor(url()) * 2; i++) {
+                    try {
+                        transport.send(url(), "POST", connection -> {
+                            throw new AssertionError("broken request");
+                        }, HttpTransportTest::readAll);
+                        fail("expected the request's error");
+                    } catch (AssertionError expected) {
+                    }
+                }
+                return null;
+            });
+            attempts.get(5, TimeUnit.SECONDS); // a leaked slot would block the attempts past the limit
+        } finally {
+            caller.shutdownNow();
+        }
+        assertEquals(0, requests.get());
+    }
+
+    private static void await(CountDownLatch latch) throws IOException {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    private String url() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/";
+    }
+
+    private static String readAll(InputStream body) throws IOException {
+        StringBuilder text = new StringBuilder();
+        int c;
+        while ((c = body.read()) != -1) text.append((char) c);
+        return text.toString();
+    }
+}
@@ -0,0 +1,57 @@
+package uk.gov.education.honours;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class InMemoryMetricsTest {
+    @Test
+    public void percentilesAreWithinTheBucketResolution() {
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        for (long i = 1; i <= 10_000; i++) metrics.recordLatency("stage", i * 1000);
+
+        InMemoryMetrics.Histogram histogram = metrics.histogram("stage");
+        assertEquals(10_000, histogram.count());
+        assertEquals(10_000_000, histogram.max());
+        assertEquals(5_000_500, histogram.mean(), 1);
+        assertEquals(5_000_000, histogram.percentile(50), 5_000_000 * 0.125);
+        assertEquals(9_900_000, histogram.percentile(99), 9_900_000 * 0.125);
+        assertEquals(10_000_000, histogram.percentile(100));
+    }
+
+    @Test
+    public void bucketsCoverEveryValue() {
+        long[] values = {0, 1, 7, 8, 9, 15, 16, 1000, 123_456_789, Long.MAX_VALUE};
+        for (long value : values) {
+            int bucket = InMemoryMetrics.Histogram.bucketOf(value);
+            assertTrue(value + " above its bucket", value <= InMemoryMetrics.Histogram.upperEdge(bucket));
+            if (bucket > 0) assertTrue(value + " below its bucket", value > InMemoryMetrics.Histogram.upperEdge(bucket - 1));
+        }
+    }
+
+    @Test
+    public void countersAddUp() {
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        metrics.count("upload.bytes", 100);
+        metrics.count("upload.bytes", 23);
+
+        assertEquals(123, metrics.counter("upload.bytes"));
+        assertEquals(0, metrics.counter("never.counted"));
+        assertEquals(0, metrics.histogram("never.timed").count());
+    }
+
+    @Test
+    @SuppressWarnings("try")
+    public void spansReachTheSink() {
+        InMemoryMetrics sink = new InMemoryMetrics();
+        Metrics metrics = new Metrics();
+        metrics.setSink(sink);
+
+        try (Metrics.Span ignored = metrics.time("parse.sections")) {
+            metrics.count("parse.words", 42);
+        }
+
+        assertEquals(1, sink.histogram("parse.sections").count());
+        assertEquals(42, sink.counter("parse.words"));
+    }
+}
@@ -1,9 +1,13 @@
 package uk.gov.education.honours;
 
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.nio.channels.Channels;
 import java.nio.file.Files;
@@ -17,6 +21,124 @@ public class KissflowApiTest {
         kissflowApi.getShortlist("","2018 NY");
     }
 
+    @Test
+    public void importsReadFreshRecordsEvenWhenExportsAreCached() throws Exception {
+        try (StubKissflowServer server = new StubKissflowServer(10)) {
+            KissflowApi kissflowApi = new KissflowApi("key");
+            kissflowApi.setBaseUrl(server.baseUrl());
+            kissflowApi.setRecordCacheTtl(60_000);
+
+            File shortlist = File.createTempFile("shortlist", ".xlsx");
+            try (OutputStream out = new FileOutputStream(shortlist)) {
+                kissflowApi.writeShortlist("", "", out);
+            }
+            kissflowApi.writeShortlist("", "", new ByteArrayOutputStream());
+            int exportRequests = server.listRequests.get();
+
+            kissflowApi.importShortlistStreaming(shortlist);
+            assertTrue(server.listRequests.get() > exportRequests);
+            shortlist.delete();
+        }
+    }
+
+    @Test
+    public void cachedExportsShareOneWalkUntilAnImport() throws Exception {
+        try (StubKissflowServer server = new StubKissflowServer(25)) {
+            KissflowApi kissflowApi = new KissflowApi("key");
+            kissflowApi.setBaseUrl(server.baseUrl());
+            kissflowApi.setRecordCacheTtl(60_000);
+            kissflowApi.setRecordPageSize(10);
+
+            File shortlist = File.createTempFile("shortlist", ".xlsx");
+            try (OutputStream out = new FileOutputStream(shortlist)) {
+                kissflowApi.writeShortlist("", "", out);
+            }
+            assertEquals(3, server.listRequests.get());
+            assertEquals(26, kissflowApi.getShortlist("", "").getSheetAt(0).getPhysicalNumberOfRows());
+            assertEquals(3, server.listRequests.get());
+
+            kissflowApi.importShortlistStreaming(shortlist);
+            int afterImport = server.listRequests.get();
+            kissflowApi.writeShortlist("", "", new ByteArrayOutputStream());
+            assertEquals(afterImport + 3, server.listRequests.get());
+            shortlist.delete();
+        }
+    }
+
+    @Test
+    public void everyRecordIsReadWhenTheServerCapsThePageSize() throws Exception {
+        try (StubKissflowServer server = new StubKissflowServer(25)) {
+            server.maxPageSize = 10;
+            KissflowApi kissflowApi = new KissflowApi("key");
+            kissflowApi.setBaseUrl(server.baseUrl());
+            kissflowApi.setRecordPageSize(100);
+
+            assertEquals(26, kissflowApi.getShortlist("", "").getSheetAt(0).getPhysicalNumberOfRows());
+            assertEquals(3, server.listRequests.get()); // pages of 10, 10 and 5
+        }
+    }
+
+    @Test
+    public void everyRecordIsReadWhenACappedServerOffsetsByTheSizeAskedFor() throws Exception {
+        try (StubKissflowServer server = new StubKissflowServer(25)) {
+            server.maxPageSize = 10;
+            server.capsAfterOffsetting = true;
+            KissflowApi kissflowApi = new KissflowApi("key");
+            kissflowApi.setBaseUrl(server.baseUrl());
+            kissflowApi.setRecordPageSize(100);
+
+            assertEquals(26, kissflowApi.getShortlist("", "").getSheetAt(0).getPhysicalNumberOfRows());
+            assertEquals(3, server.listRequests.get());
+        }
+    }
+
+    @Test
+    public void aShortPageAfterAFullOneIsTheLast() throws Exception {
+        try (StubKissflowServer server = new StubKissflowServer(25)) {
+            KissflowApi kissflowApi = new KissflowApi("key");
+            kissflowApi.setBaseUrl(server.baseUrl());
+            kissflowApi.setRecordPageSize(10);
+
+            assertEquals(26, kissflowApi.getShortlist("", "").getSheetAt(0).getPhysicalNumberOfRows());
+            assertEquals(3, server.listRequests.get());
+        }
+    }
+
+    @Test
+    public void theFinalShortlistCreatesOnlyTheHeaderStyle() throws Exception {
+        try (StubKissflowServer server = new StubKissflowServer(0)) {
+            KissflowApi kissflowApi = new KissflowApi("key");
+            kissflowApi.setBaseUrl(server.baseUrl());
+
+            int defaultStyles = new XSSFWorkbook().getNumCellStyles();
+            assertEquals(defaultStyles + 1, kissflowApi.getFinalShortlist("").getNumCellStyles());
+            assertEquals(defaultStyles + 3, kissflowApi.getShortlist("", "").getNumCellStyles());
+        }
+    }
+
+    @Test
+    public void aStreamedImportChecksTheHeaderBeforeFetchingRecords() throws Exception {
+        try (StubKissflowServer server = new StubKissflowServer(10)) {
+            KissflowApi kissflowApi = new KissflowApi("key");
+            kissflowApi.setBaseUrl(server.baseUrl());
+
+            File shortlist = File.createTempFile("shortlist", ".xlsx");
+            try (XSSFWorkbook wb = new XSSFWorkbook(); OutputStream out = new FileOutputStream(shortlist)) {
+                wb.createSheet().createRow(0).createCell(0).setCellValue("Not a shortlist");
+                wb.write(out);
+            }
+
+            try {
+                kissflowApi.importShortlistStreaming(shortlist);
+                fail("expected the header to be rejected");
+            } catch (UnsupportedOperationException e) {
+                assertEquals(0, server.listRequests.get());
+            } finally {
+                shortlist.delete();
+            }
+        }
+    }
+
     @Test
     public void largeFile() throws Exception {
         FileUploader fileUploader = new FileUploader("e192af2487358543335a");
@@ -0,0 +1,228 @@
+package uk.gov.education.honours;
+
+import org.json.simple.parser.ParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+// Drives NominationUploader against StubKissflowServer and StubUploadServer, so the whole tool can be loaded without
+// an api key or the network. Each scenario runs a number of operations a fixed number at a time and reports
+// throughput, latency percentiles and peak heap; the uploader's own per-stage metrics are in metrics.
+//
+// usage: LoadTestHarness [records] [operations] [concurrency] [latencyMillis] [errorRate] [SMALL|MEDIUM|LARGE|HUGE]
+public class LoadTestHarness implements AutoCloseable {
+    interface Operation {
+        void run(int i) throws Exception;
+    }
+
+    final StubKissflowServer kissflow;
+    final StubUploadServer uploads;
+    final InMemoryMetrics metrics = new InMemoryMetrics();
+    final NominationUploader uploader;
+    private final Path workDirectory;
+
+    LoadTestHarness(int records) throws IOException {
+        kissflow = new StubKissflowServer(records);
+        uploads = new StubUploadServer();
+        workDirectory = Files.createTempDirectory("load-test");
+
+        uploader = new NominationUploader("load-test", "load-test");
+        uploader.setBaseUrls(kissflow.baseUrl(), uploads.baseUrl());
+        uploader.setMetricsSink(metrics);
+        uploader.setRecordCacheTtl(0, TimeUnit.MILLISECONDS); // every export and import fetches the records itself
+    }
+
+    // latency and errors both stub servers add to every request from now on
+    void injectFaults(long latencyMillis, double errorRate) {
+        kissflow.faults.set(latencyMillis, errorRate);
+        uploads.faults.set(latencyMillis, errorRate);
+    }
+
+    Report uploadNominations(int count, int concurrency, SyntheticNominations.Size size, int evidenceBytes) throws IOException, InterruptedException {
+        Path pdf = SyntheticNominations.write(size, workDirectory.resolve("nomination-" + size + ".pdf"));
+
+        Map<String, File> fileBucket = new HashMap<>();
+        List<String> names = new ArrayList<>(SyntheticNominations.evidenceNames(size));
+        names.addAll(SyntheticNominations.letterNames(size));
+        for (String name : names) {
+            Path evidence = workDirectory.resolve(name);
+            Files.write(evidence, new byte[evidenceBytes]);
+            fileBucket.put(name, evidence.toFile());
+        }
+
+        return run("upload " + size, count, concurrency, i ->
+                uploader.uploadNomination(pdf, "Honours nomination web form submitted for Nominee " + i + ".pdf", fileBucket));
+    }
+
+    Report exportShortlists(int count, int concurrency) throws InterruptedException {
+        return run("export", count, concurrency, i -> uploader.writeShortlist("", "", new Discard()));
+    }
+
+    // imports an export of every record, so each import writes back once per record
+    Report importShortlists(int count, int concurrency) throws IOException, ParseException, InterruptedException {
+        Path shortlist = workDirectory.resolve("shortlist.xlsx");
+        try (OutputStream out = Files.newOutputStream(shortlist)) {
+            uploader.writeShortlist("", "", out);
+        }
+
+        return run("import", count, concurrency, i -> {
+            ImportReport report = uploader.importShortlistStreaming(shortlist.toFile());
+            long failed = report.count(ImportReport.Status.FAILED);
+            if (failed > 0) {
+                Exception cause = report.rows.stream().filter(x -> x.error != null).findFirst().map(x -> x.error).orElse(null);
+                throw new IOException(failed + " of " + report.rows.size() + " rows failed to import", cause);
+            }
+        });
+    }
+
+    Report run(String name, int operations, int concurrency, Operation operation) throws InterruptedException {
+        resetPeakHeap();
+
+        InMemoryMetrics.Histogram latency = new InMemoryMetrics.Histogram();
+        AtomicInteger failures = new AtomicInteger();
+        AtomicReference<Exception> firstError = new AtomicReference<>();
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, concurrency));
+        long start = System.nanoTime();
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < operations; i++) {
+                int index = i;
+                futures.add(executor.submit(() -> {
+                    long began = System.nanoTime();
+                    try {
+                        operation.run(index);
+                    } catch (Exception e) {
+                        failures.incrementAndGet();
+                        firstError.compareAndSet(null, e);
+                    } finally {
+                        latency.record(System.nanoTime() - began);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Load test operation failed unexpectedly", e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return new Report(name, operations, failures.get(), System.nanoTime() - start, latency, peakHeapBytes(), firstError.get());
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) pool.resetPeakUsage();
+        }
+    }
+
+    // the sum of each heap pool's peak since the last reset; an upper bound, as the pools needn't peak together
+    private static long peakHeapBytes() {
+        long res = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) res += pool.getPeakUsage().getUsed();
+        }
+        return res;
+    }
+
+    @Override
+    public void close() throws IOException {
+        kissflow.close();
+        uploads.close();
+        try (Stream<Path> files = Files.walk(workDirectory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) Files.deleteIfExists(file);
+        }
+    }
+
+    static class Report {
+        final String name;
+        final int operations;
+        final int failures;
+        final long elapsedNanos;
+        final InMemoryMetrics.Histogram latency;
+        final long peakHeapBytes;
+        final Exception firstError;
+
+        Report(String name, int operations, int failures, long elapsedNanos, InMemoryMetrics.Histogram latency, long peakHeapBytes, Exception firstError) {
+            this.name = name;
+            this.operations = operations;
+            this.failures = failures;
+            this.elapsedNanos = elapsedNanos;
+            this.latency = latency;
+            this.peakHeapBytes = peakHeapBytes;
+            this.firstError = firstError;
+        }
+
+        double operationsPerSecond() {
+            return elapsedNanos == 0 ? 0 : operations * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-14s %6d ops %4d failed %9.1f ops/s   p50 %8.2f ms  p95 %8.2f ms  p99 %8.2f ms   peak heap %6.1f MB%s",
+                    name, operations, failures, operationsPerSecond(),
+                    latency.percentile(50) / 1e6, latency.percentile(95) / 1e6, latency.percentile(99) / 1e6,
+                    peakHeapBytes / (1024.0 * 1024.0),
+                    firstError == null ? "" : "\n    first failure: " + firstError);
+        }
+    }
+
+    private static class Discard extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int operations = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int concurrency = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        long latencyMillis = args.length > 3 ? Long.parseLong(args[3]) : 20;
+        double errorRate = args.length > 4 ? Double.parseDouble(args[4]) : 0;
+        SyntheticNominations.Size size = args.length > 5 ? SyntheticNominations.Size.valueOf(args[5]) : SyntheticNominations.Size.MEDIUM;
+
+        try (LoadTestHarness harness = new LoadTestHarness(records)) {
+            harness.injectFaults(latencyMillis, errorRate);
+
+            List<Report> reports = new ArrayList<>();
+            reports.add(harness.uploadNominations(operations, concurrency, size, 256 * 1024));
+            System.gc(); // so what one scenario left behind doesn't count towards the next one's peak
+            reports.add(harness.exportShortlists(operations, concurrency));
+            System.gc();
+            reports.add(harness.importShortlists(Math.max(1, operations / 10), concurrency));
+
+            System.out.printf("%d records, %d-at-a-time, %d ms added latency, %.1f%% injected errors%n%n",
+                    records, concurrency, latencyMillis, errorRate * 100);
+            for (Report report : reports) System.out.println(report);
+            System.out.println();
+            System.out.print(harness.metrics);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package uk.gov.education.honours;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LoadTestHarnessTest {
+    private LoadTestHarness harness;
+
+    @Before
+    public void setUp() throws Exception {
+        // a smoke-sized run; LoadTestHarness.main is the load test
+        harness = new LoadTestHarness(120);
+        harness.uploader.setRecordPageSize(50);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        harness.close();
+    }
+
+    @Test
+    public void exportsReadEveryPageOfRecords() throws Exception {
+        LoadTestHarness.Report report = harness.exportShortlists(6, 3);
+
+        assertEquals(0, report.failures);
+        assertEquals(6 * 3, harness.kissflow.listRequests.get());
+        assertEquals(6 * 120, harness.metrics.counter("export.rows"));
+        assertEquals(6, report.latency.count());
+        assertTrue(report.peakHeapBytes > 0);
+    }
+
+    @Test
+    public void importsProgressRecordsWithoutARankAndUpdateTheRest() throws Exception {
+        LoadTestHarness.Report report = harness.importShortlists(2, 2);
+
+        assertEquals(0, report.failures);
+        assertEquals(2 * 60, harness.kissflow.doneRequests.get());
+        assertEquals(2 * 60, harness.kissflow.updateRequests.get());
+    }
+
+    @Test
+    public void injectedErrorsOnIdempotentCallsAreRetried() throws Exception {
+        harness.injectFaults(1, 0.25);
+
+        LoadTestHarness.Report report = harness.exportShortlists(4, 2);
+
+        assertEquals(0, report.failures);
+        assertTrue(harness.kissflow.listRequests.get() >= 4 * 3);
+        assertTrue(harness.metrics.counter("http.retries") > 0);
+    }
+}
@@ -0,0 +1,128 @@
+package uk.gov.education.honours;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class NominationUploaderTest {
+    private StubKissflowServer kissflow;
+    private StubUploadServer uploads;
+    private NominationUploader uploader;
+    private Path directory;
+
+    @Before
+    public void setUp() throws Exception {
+        kissflow = new StubKissflowServer(0);
+        uploads = new StubUploadServer();
+        uploader = new NominationUploader("key", "key");
+        uploader.setBaseUrls(kissflow.baseUrl(), uploads.baseUrl());
+        directory = Files.createTempDirectory("nominations");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        uploader.shutdownAsync();
+        kissflow.close();
+        uploads.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void aBadNominationIsRecordedAndTheRestOfTheBatchCarriesOn() throws Exception {
+        Path good = SyntheticNominations.write(SyntheticNominations.Size.SMALL,
+                directory.resolve("Honours nomination web form submitted for Jane Good.pdf"));
+        Path bad = directory.resolve("Honours nomination web form submitted for John Bad.pdf");
+        Files.write(bad, "not a pdf".getBytes("UTF-8"));
+
+        NominationUploader.BatchResult batch = uploader.uploadNominations(Arrays.asList(bad, good), Collections.<String, File>emptyMap(), 2);
+
+        assertEquals(2, batch.results.size());
+        assertEquals(1, batch.succeeded);
+        assertEquals(1, batch.failed);
+
+        NominationUploader.Result failed = batch.results.get(0);
+        assertFalse(failed.success);
+        assertEquals("John Bad", failed.nominationFileName);
+        assertNotNull(failed.error);
+
+        assertTrue(batch.results.get(1).success);
+        assertEquals(1, kissflow.submissions.get());
+    }
+
+    @Test
+    public void anAsyncCallsFailureCompletesItsFuture() throws Exception {
+        CompletableFuture<NominationUploader.Result> upload =
+                uploader.uploadNominationAsync(directory.resolve("missing.pdf"), "missing.pdf", Collections.<String, File>emptyMap());
+
+        try {
+            upload.get(30, TimeUnit.SECONDS);
+            fail("expected the upload to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertTrue(upload.isCompletedExceptionally());
+    }
+
+    @Test
+    public void asyncCallsRunOnTheAsyncExecutor() throws Exception {
+        kissflow.close();
+        kissflow = new StubKissflowServer(3);
+        uploader.setBaseUrls(kissflow.baseUrl(), uploads.baseUrl());
+
+        ByteArrayOutputStream shortlist = new ByteArrayOutputStream();
+        uploader.writeShortlistAsync("", "", shortlist).get(30, TimeUnit.SECONDS);
+        NominationUploader.BatchResult batch = uploader.uploadNominationsAsync(directory, Collections.<String, File>emptyMap(), 2).get(30, TimeUnit.SECONDS);
+
+        assertTrue(shortlist.size() > 0);
+        assertEquals(0, batch.results.size());
+    }
+
+    @Test
+    public void callsAfterShutdownAreRejected() throws Exception {
+        uploader.getFinalShortlistAsync("").get(30, TimeUnit.SECONDS);
+        uploader.shutdownAsync();
+
+        try {
+            uploader.getFinalShortlistAsync("").get(30, TimeUnit.SECONDS);
+            fail("expected the call to be rejected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    @Test
+    public void errorsFromOneNominationBecomeAFailedResult() {
+        NominationUploader.Result result = NominationUploader.uploadOrFailure("Honours nomination web form submitted for Deep Recursion.pdf", () -> {
+            throw new StackOverflowError();
+        });
+
+        assertFalse(result.success);
+        assertEquals("Deep Recursion", result.nominationFileName);
+        assertTrue(result.error.getCause() instanceof StackOverflowError);
+    }
+
+    @Test(expected = InternalError.class)
+    public void otherVirtualMachineErrorsStopTheBatch() {
+        NominationUploader.uploadOrFailure("broken.pdf", () -> {
+            throw new InternalError();
+        });
+    }
+}
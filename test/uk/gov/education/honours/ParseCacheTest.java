@@ -0,0 +1,123 @@
+package uk.gov.education.honours;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class ParseCacheTest {
+    private Path directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("parse-cache");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void sectionsSurviveAJsonRoundTrip() throws Exception {
+        Section section = nominee("Mr", "Brown");
+
+        String json = section.toJson().toJSONString();
+        Section read = Section.fromJson((JSONObject) new JSONParser().parse(json));
+
+        assertEquals("Nominee details", read.label);
+        assertEquals(2, read.questions.size());
+        assertEquals("01/02/1960\nor thereabouts", read.questions.get("What is your nominee's date of birth?").simpleAnswer);
+        assertTrue(read.questions.get("What is your nominee's date of birth?").answers.isEmpty());
+
+        Section.Question details = read.questions.get("Details");
+        assertNull(details.simpleAnswer);
+        assertEquals(2, details.answers.size());
+        assertEquals("Brown", details.answers.get(0).get("Surname"));
+        assertEquals("Ms \"Jo\"", details.answers.get(1).get("Title"));
+        assertEquals(section.toString(), read.toString());
+    }
+
+    @Test
+    public void anEntryIsFoundByTheSamePdfAndMissedOnceItsContentChanges() throws Exception {
+        ParseCache cache = new ParseCache(directory.resolve("cache"), 1024 * 1024);
+        Path pdf = directory.resolve("nomination.pdf");
+        Files.write(pdf, "first version".getBytes(StandardCharsets.UTF_8));
+
+        String key = cache.key(pdf, "PDF_DOM");
+        cache.put(key, Collections.singletonList(nominee("Mr", "Brown")));
+
+        List<Section> hit = cache.get(cache.key(pdf, "PDF_DOM"));
+        assertNotNull(hit);
+        assertEquals("Brown", hit.get(0).questions.get("Details").answers.get(0).get("Surname"));
+        assertNull(cache.get(cache.key(pdf, "POSITIONAL_STREAM")));
+
+        Files.write(pdf, "second version".getBytes(StandardCharsets.UTF_8));
+        assertNotEquals(key, cache.key(pdf, "PDF_DOM"));
+        assertNull(cache.get(cache.key(pdf, "PDF_DOM")));
+    }
+
+    @Test
+    public void unreadableEntriesAreAMissAndRemoved() throws Exception {
+        Path cacheDirectory = directory.resolve("cache");
+        ParseCache cache = new ParseCache(cacheDirectory, 1024 * 1024);
+        Files.write(cacheDirectory.resolve("broken.json"), "[{\"label\":".getBytes(StandardCharsets.UTF_8));
+
+        assertNull(cache.get("broken"));
+        assertFalse(Files.exists(cacheDirectory.resolve("broken.json")));
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesAreEvictedBeyondTheSizeLimit() throws Exception {
+        Path cacheDirectory = directory.resolve("cache");
+        List<Section> sections = Collections.singletonList(nominee("Mr", "Brown"));
+
+        // size the limit to hold two entries but not three
+        new ParseCache(cacheDirectory, Long.MAX_VALUE).put("probe", sections);
+        long entrySize = Files.size(cacheDirectory.resolve("probe.json"));
+        Files.delete(cacheDirectory.resolve("probe.json"));
+        ParseCache cache = new ParseCache(cacheDirectory, entrySize * 5 / 2);
+
+        cache.put("a", sections);
+        cache.put("b", sections);
+        Files.setLastModifiedTime(cacheDirectory.resolve("a.json"), FileTime.fromMillis(1_000_000));
+        Files.setLastModifiedTime(cacheDirectory.resolve("b.json"), FileTime.fromMillis(2_000_000));
+
+        assertNotNull(cache.get("a")); // reading a makes b the least recently used
+        cache.put("c", sections);
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+    }
+
+    private static Section nominee(String title, String surname) {
+        Section section = new Section("Nominee details");
+
+        Section.Question details = section.addQuestion("Details");
+        details.addToLastAnswer("Title", title);
+        details.addToLastAnswer("Surname", surname);
+        details.addAnswer();
+        details.addToLastAnswer("Title", "Ms \"Jo\"");
+        details.addToLastAnswer("Surname", "Smithé");
+
+        Section.Question dob = section.addQuestion("What is your nominee's date of birth?");
+        dob.addSimpleAnswer("01/02/1960");
+        dob.addSimpleAnswer("or thereabouts");
+        return section;
+    }
+}
@@ -0,0 +1,52 @@
+package uk.gov.education.honours;
+
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PositionalTextExtractorTest {
+    // pdf2dom writes positions into css as float strings, which don't read back as exactly the same double
+    private static final double TOLERANCE = 0.001;
+
+    @Test
+    public void smallNominationGivesTheSameWordsAndSectionsAsPdf2dom() throws Exception {
+        assertSameAsPdfDom(SyntheticNominations.Size.SMALL);
+    }
+
+    @Test
+    public void mediumNominationGivesTheSameWordsAndSectionsAsPdf2dom() throws Exception {
+        assertSameAsPdfDom(SyntheticNominations.Size.MEDIUM);
+    }
+
+    private static void assertSameAsPdfDom(SyntheticNominations.Size size) throws Exception {
+        Path pdf = SyntheticNominations.write(size, Files.createTempFile("nomination", ".pdf"));
+        try {
+            List<Word> dom = NominationUploader.getWordsFromPdf(pdf.toString(), new Metrics());
+            List<Word> positional = PositionalTextExtractor.getWordsFromPdf(pdf.toString(), new Metrics());
+
+            assertEquals(dom.size(), positional.size());
+            for (int i = 0; i < dom.size(); i++) {
+                Word expected = dom.get(i);
+                Word actual = positional.get(i);
+                String at = "word " + i + " (" + expected.text + ")";
+                assertEquals(at, expected.text, actual.text);
+                assertEquals(at, expected.params.fontSize, actual.params.fontSize, TOLERANCE);
+                assertEquals(at, expected.params.fontWeight, actual.params.fontWeight);
+                assertEquals(at, expected.params.top, actual.params.top, TOLERANCE);
+                assertEquals(at, expected.params.left, actual.params.left, TOLERANCE);
+                assertEquals(at, expected.params.width, actual.params.width, TOLERANCE);
+            }
+
+            List<Section> domSections = NominationUploader.structurePhrasesIntoSections(NominationUploader.bunchWordsIntoPhrases(dom));
+            List<Section> positionalSections = NominationUploader.structurePhrasesIntoSections(NominationUploader.bunchWordsIntoPhrases(positional));
+            assertEquals(3, domSections.size());
+            assertEquals(domSections.toString(), positionalSections.toString());
+        } finally {
+            Files.deleteIfExists(pdf);
+        }
+    }
+}
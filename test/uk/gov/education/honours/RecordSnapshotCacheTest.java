@@ -0,0 +1,133 @@
+package uk.gov.education.honours;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class RecordSnapshotCacheTest {
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void concurrentCallersShareOneFetch() throws Exception {
+        RecordSnapshotCache cache = new RecordSnapshotCache(60_000);
+        CountDownLatch release = new CountDownLatch(1);
+
+        List<Future<Object>> callers = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            callers.add(executor.submit(() -> cache.get("page", () -> {
+                loads.incrementAndGet();
+                await(release);
+                return "records";
+            })));
+        }
+        waitForLoads(1);
+        release.countDown();
+
+        for (Future<Object> caller : callers) assertEquals("records", caller.get(5, TimeUnit.SECONDS));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void snapshotsExpireAfterTheTtl() throws Exception {
+        RecordSnapshotCache cache = new RecordSnapshotCache(50);
+
+        assertEquals(1, cache.get("page", this::load));
+        assertEquals(1, cache.get("page", this::load));
+        Thread.sleep(80);
+        assertEquals(2, cache.get("page", this::load));
+    }
+
+    @Test
+    public void aTtlOfZeroTurnsTheCacheOff() {
+        RecordSnapshotCache cache = new RecordSnapshotCache(60_000);
+        assertTrue(cache.isEnabled());
+        cache.setTtlMillis(0);
+        assertFalse(cache.isEnabled());
+    }
+
+    @Test
+    public void invalidateAllMakesTheNextCallFetchAgain() throws Exception {
+        RecordSnapshotCache cache = new RecordSnapshotCache(60_000);
+
+        assertEquals(1, cache.get("page", this::load));
+        cache.invalidateAll();
+        assertEquals(2, cache.get("page", this::load));
+        assertEquals(2, cache.get("page", this::load));
+    }
+
+    @Test
+    public void invalidateOnlyDropsTheGivenKey() throws Exception {
+        RecordSnapshotCache cache = new RecordSnapshotCache(60_000);
+
+        assertEquals(1, cache.get("records", this::load));
+        assertEquals(2, cache.get("other", this::load));
+        cache.invalidate("records");
+        assertEquals(3, cache.get("records", this::load));
+        assertEquals(2, cache.get("other", this::load));
+    }
+
+    @Test
+    public void anErrorReachesEveryWaiterAndIsNotCached() throws Exception {
+        RecordSnapshotCache cache = new RecordSnapshotCache(60_000);
+        CountDownLatch release = new CountDownLatch(1);
+
+        List<Future<Object>> callers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            callers.add(executor.submit(() -> cache.get("page", () -> {
+                loads.incrementAndGet();
+                await(release);
+                throw new StackOverflowError();
+            })));
+        }
+        waitForLoads(1);
+        release.countDown();
+
+        for (Future<Object> caller : callers) {
+            try {
+                caller.get(5, TimeUnit.SECONDS);
+                fail("expected the loader's error");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof StackOverflowError);
+            }
+        }
+        assertEquals(1, loads.get());
+        assertEquals(2, cache.get("page", this::load));
+    }
+
+    private Object load() {
+        return loads.incrementAndGet();
+    }
+
+    private static void await(CountDownLatch latch) throws IOException {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    private void waitForLoads(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (loads.get() < count && System.currentTimeMillis() < deadline) Thread.sleep(5);
+        Thread.sleep(50); // give the other callers time to find the fetch in flight
+    }
+}
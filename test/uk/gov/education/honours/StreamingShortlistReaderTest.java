@@ -0,0 +1,105 @@
+package uk.gov.education.honours;
+
+import org.apache.poi.xssf.usermodel.XSSFRow;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StreamingShortlistReaderTest {
+    private File xlsx;
+
+    @Before
+    public void setUp() throws Exception {
+        xlsx = File.createTempFile("shortlist", ".xlsx");
+    }
+
+    @After
+    public void tearDown() {
+        xlsx.delete();
+    }
+
+    @Test
+    public void rowsArriveInOrderWithMissingCellsEmptyAndExtraColumnsDropped() throws Exception {
+        try (XSSFWorkbook wb = new XSSFWorkbook()) {
+            XSSFSheet sheet = wb.createSheet();
+            XSSFRow header = sheet.createRow(0);
+            header.createCell(0).setCellValue("Departmental rank");
+            header.createCell(1).setCellValue("Directorate rank");
+            header.createCell(2).setCellValue("Round");
+
+            XSSFRow gaps = sheet.createRow(1);
+            gaps.createCell(0).setCellValue("A");
+            gaps.createCell(2).setCellValue("2019 NY");
+            gaps.createCell(5).setCellValue("beyond the columns read");
+
+            sheet.createRow(4).createCell(1).setCellValue("after a gap");
+            write(wb);
+        }
+
+        List<Integer> rowNums = new ArrayList<>();
+        List<String[]> rows = new ArrayList<>();
+        StreamingShortlistReader.read(xlsx, 3, (rowNum, cells) -> {
+            rowNums.add(rowNum);
+            rows.add(cells);
+        });
+
+        assertEquals(3, rows.size());
+        assertArrayEquals(new String[] {"Departmental rank", "Directorate rank", "Round"}, rows.get(0));
+        assertArrayEquals(new String[] {"A", "", "2019 NY"}, rows.get(1));
+        assertArrayEquals(new String[] {"", "after a gap", ""}, rows.get(2));
+        assertEquals(0, (int) rowNums.get(0));
+        assertEquals(1, (int) rowNums.get(1));
+        assertEquals(4, (int) rowNums.get(2));
+    }
+
+    @Test
+    public void numbersArriveAsExcelShowsThem() throws Exception {
+        try (XSSFWorkbook wb = new XSSFWorkbook()) {
+            XSSFRow row = wb.createSheet().createRow(0);
+            row.createCell(0).setCellValue(2);
+            row.createCell(1).setCellValue(2.5);
+            row.createCell(2).setCellValue(true);
+            write(wb);
+        }
+
+        List<String[]> rows = new ArrayList<>();
+        StreamingShortlistReader.read(xlsx, 3, (rowNum, cells) -> rows.add(cells));
+
+        assertArrayEquals(new String[] {"2", "2.5", "TRUE"}, rows.get(0));
+    }
+
+    @Test
+    public void aHandlersIOExceptionIsRethrownAsIs() throws Exception {
+        try (XSSFWorkbook wb = new XSSFWorkbook()) {
+            wb.createSheet().createRow(0).createCell(0).setCellValue("x");
+            write(wb);
+        }
+
+        IOException thrown = new IOException("from the handler");
+        try {
+            StreamingShortlistReader.read(xlsx, 1, (rowNum, cells) -> {
+                throw thrown;
+            });
+            fail("expected the handler's exception");
+        } catch (IOException e) {
+            assertSame(thrown, e);
+        }
+    }
+
+    private void write(XSSFWorkbook wb) throws IOException {
+        try (OutputStream out = new FileOutputStream(xlsx)) {
+            wb.write(out);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package uk.gov.education.honours;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.simple.JSONObject;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Local stand-in for the Kissflow Honours api: the paged /list, /submit, and the /done and /update calls an import
+// makes per row. It serves a fixed set of synthetic records; half have a directorate rank, so importing an export
+// of them progresses half the rows and updates the rest. faults adds latency and errors to every endpoint.
+class StubKissflowServer implements AutoCloseable {
+    private static final Pattern LIST = Pattern.compile("/api/1/Honours/list/p([0-9]+)/([0-9]+)");
+    private static final Pattern RECORD_CALL = Pattern.compile("/api/1/Honours/([^/]+)/(done|update)");
+    private static final String[] DIRECTORATES = {"Schools", "Skills", "Early Years", "Higher Education"};
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final List<String> records = new ArrayList<>();
+    final AtomicInteger listRequests = new AtomicInteger();
+    final AtomicInteger submissions = new AtomicInteger();
+    final AtomicInteger doneRequests = new AtomicInteger();
+    final AtomicInteger updateRequests = new AtomicInteger();
+    final FaultInjector faults = new FaultInjector();
+    volatile int maxPageSize = Integer.MAX_VALUE; // like a server that ignores page sizes above its own limit
+    volatile boolean capsAfterOffsetting = false; // a capped page starts at (page - 1) * the size asked for, not the size sent
+
+    StubKissflowServer(int recordCount) throws IOException {
+        for (int i = 0; i < recordCount; i++) records.add(record(i));
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/api/1/Honours/", faults.wrap(this::honours));
+        server.start();
+    }
+
+    String baseUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    int recordCount() {
+        return records.size();
+    }
+
+    private void honours(HttpExchange exchange) throws IOException {
+        StubUploadServer.readBody(exchange);
+        String path = exchange.getRequestURI().getPath();
+        String method = exchange.getRequestMethod();
+
+        Matcher list = LIST.matcher(path);
+        if (list.matches() && method.equals("GET")) {
+            listRequests.incrementAndGet();
+            // pages are numbered from 1, as in the real api
+            int page = Integer.parseInt(list.group(1));
+            int requested = Integer.parseInt(list.group(2));
+            int pageSize = Math.min(maxPageSize, requested);
+            StubUploadServer.respond(exchange, 200, records((long) (page - 1) * (capsAfterOffsetting ? requested : pageSize), pageSize));
+            return;
+        }
+
+        if (path.equals("/api/1/Honours/submit") && method.equals("POST")) {
+            StubUploadServer.respond(exchange, 200, "{\"Id\":\"Sub" + submissions.incrementAndGet() + "\"}");
+            return;
+        }
+
+        Matcher call = RECORD_CALL.matcher(path);
+        if (call.matches() && method.equals(call.group(2).equals("done") ? "POST" : "PUT")) {
+            (call.group(2).equals("done") ? doneRequests : updateRequests).incrementAndGet();
+            StubUploadServer.respond(exchange, 200, "{\"Id\":\"" + call.group(1) + "\"}");
+            return;
+        }
+
+        StubUploadServer.respond(exchange, 404, "{\"error\":\"no such endpoint\"}");
+    }
+
+    private String records(long offset, int pageSize) {
+        int from = (int) Math.min(records.size(), offset);
+        int to = (int) Math.min(records.size(), (long) from + pageSize);
+
+        StringBuilder res = new StringBuilder("[");
+        for (int i = from; i < to; i++) {
+            if (i > from) res.append(',');
+            res.append(records.get(i));
+        }
+        return res.append(']').toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String record(int i) {
+        JSONObject record = new JSONObject();
+        record.put("Id", "Hon" + i);
+        record.put("Round", "2019 NY");
+        record.put("Directorate", DIRECTORATES[i % DIRECTORATES.length]);
+        record.put("Assigned To-Directorate Shortlist", new JSONObject());
+        if (i % 2 == 0) record.put("Directorate_shortlist", (double) (1 + i % 5));
+        record.put("Departmental_shortlist", "");
+        record.put("Proposed_Award", "MBE");
+        record.put("Proposed_Committee", "Education");
+        record.put("Proposed_Category", "Services to Education");
+        record.put("Title", "Mr");
+        record.put("First_Name", "Nominee");
+        record.put("Last_Name", "Number " + i);
+        record.put("Gender", i % 2 == 0 ? "Female" : "Male");
+        record.put("Ethnic_Group", "White");
+        record.put("Region", "North East");
+        record.put("Nationality", "British");
+        record.put("Nomination_Type", "Public - Central");
+        record.put("Street", "1 High Street\nFlat " + i);
+        record.put("Town", "Leeds");
+        record.put("Postcode", "LS1 1AA");
+        record.put("Years", 12.0);
+        record.put("Short_citation", "For services to education in Leeds");
+        StringBuilder citation = new StringBuilder();
+        for (int line = 0; line < 20; line++) citation.append("Founded and chaired a local school trust for many years. ");
+        record.put("Long_citation", citation.toString());
+        record.put("Comments", "kept by Kissflow but not by HonoursRecord");
+        return record.toJSONString();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow(); // its threads aren't daemons, so they would keep the JVM alive for a minute
+    }
+}
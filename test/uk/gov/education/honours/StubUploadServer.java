@@ -0,0 +1,174 @@
+package uk.gov.education.honours;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Local stand-in for the upload api: /base/ single uploads, the /multipart/ start-parts-complete protocol and
+// /group/. Uploaded files are kept in memory so tests can check what arrived; faults adds latency and errors to
+// every endpoint.
+class StubUploadServer implements AutoCloseable {
+    private static final int PART_SIZE = 5 * 1024 * 1024;
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<String, byte[]> files = new ConcurrentHashMap<>();
+    private final Map<String, byte[][]> multipartUploads = new ConcurrentHashMap<>();
+    final AtomicInteger singleUploads = new AtomicInteger();
+    final AtomicInteger partRequests = new AtomicInteger();
+    final AtomicInteger groupRequests = new AtomicInteger();
+    private final AtomicInteger partFailuresToInject = new AtomicInteger();
+    final FaultInjector faults = new FaultInjector();
+
+    StubUploadServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/base/", faults.wrap(this::single));
+        server.createContext("/multipart/start/", faults.wrap(this::start));
+        server.createContext("/multipart/part/", faults.wrap(this::part));
+        server.createContext("/multipart/complete/", faults.wrap(this::complete));
+        server.createContext("/group/", faults.wrap(this::group));
+        server.start();
+    }
+
+    String baseUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    // the next `count` part uploads get a 500
+    void failNextParts(int count) {
+        partFailuresToInject.set(count);
+    }
+
+    // contents of every file uploaded so far, by either route
+    Collection<byte[]> files() {
+        return files.values();
+    }
+
+    private void single(HttpExchange exchange) throws IOException {
+        byte[] body = readBody(exchange);
+        singleUploads.incrementAndGet();
+
+        // keep just the file part of the multipart body
+        String text = new String(body, StandardCharsets.ISO_8859_1);
+        String boundary = exchange.getRequestHeaders().getFirst("Content-Type").split("boundary=")[1];
+        int start = text.indexOf("\r\n\r\n", text.indexOf("name=\"file\"")) + 4;
+        int end = text.indexOf("\r\n--" + boundary + "--", start);
+
+        String uuid = UUID.randomUUID().toString();
+        files.put(uuid, Arrays.copyOfRange(body, start, end));
+        respond(exchange, 200, "{\"file\":\"" + uuid + "\"}");
+    }
+
+    private void start(HttpExchange exchange) throws IOException {
+        Map<String, String> form = readForm(exchange);
+        long size = Long.parseLong(form.get("size"));
+        int partCount = (int) ((size + PART_SIZE - 1) / PART_SIZE);
+
+        String uuid = UUID.randomUUID().toString();
+        multipartUploads.put(uuid, new byte[partCount][]);
+
+        StringBuilder parts = new StringBuilder();
+        for (int i = 0; i < partCount; i++) {
+            if (i > 0) parts.append(',');
+            parts.append('"').append(baseUrl()).append("/multipart/part/").append(uuid).append('/').append(i).append('"');
+        }
+        respond(exchange, 200, "{\"uuid\":\"" + uuid + "\",\"parts\":[" + parts + "]}");
+    }
+
+    private void part(HttpExchange exchange) throws IOException {
+        byte[] body = readBody(exchange);
+        partRequests.incrementAndGet();
+        if (partFailuresToInject.getAndUpdate(x -> Math.max(0, x - 1)) > 0) {
+            respond(exchange, 500, "injected failure");
+            return;
+        }
+
+        String[] path = exchange.getRequestURI().getPath().split("/");
+        multipartUploads.get(path[3])[Integer.parseInt(path[4])] = body;
+        respond(exchange, 200, "");
+    }
+
+    private void complete(HttpExchange exchange) throws IOException {
+        String uuid = readForm(exchange).get("uuid");
+        byte[][] parts = multipartUploads.remove(uuid);
+
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            if (part == null) {
+                respond(exchange, 400, "{\"error\":\"missing part\"}");
+                return;
+            }
+            file.write(part);
+        }
+        files.put(uuid, file.toByteArray());
+        respond(exchange, 200, "{\"uuid\":\"" + uuid + "\"}");
+    }
+
+    private void group(HttpExchange exchange) throws IOException {
+        readForm(exchange);
+        groupRequests.incrementAndGet();
+        respond(exchange, 200, "{\"cdn_url\":\"https://ucarecdn.com/" + UUID.randomUUID() + "~1\"}");
+    }
+
+    static byte[] readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[65536];
+        try (InputStream in = exchange.getRequestBody()) {
+            int read;
+            while ((read = in.read(buffer)) != -1) body.write(buffer, 0, read);
+        }
+        return body.toByteArray();
+    }
+
+    private static Map<String, String> readForm(HttpExchange exchange) throws IOException {
+        Map<String, String> form = new HashMap<>();
+        for (String pair : new String(readBody(exchange), StandardCharsets.UTF_8).split("&")) {
+            String[] split = pair.split("=", 2);
+            if (split.length == 2) form.put(decode(split[0]), decode(split[1]));
+        }
+        return form;
+    }
+
+    private static String decode(String s) throws UnsupportedEncodingException {
+        return URLDecoder.decode(s, "UTF-8");
+    }
+
+    static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length == 0) {
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+            return;
+        }
+
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow(); // its threads aren't daemons, so they would keep the JVM alive for a minute
+    }
+}
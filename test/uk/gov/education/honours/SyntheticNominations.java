@@ -0,0 +1,206 @@
+package uk.gov.education.honours;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+// Writes nomination pdfs laid out like the Honours submission emails: 16pt section headings, 14pt questions, bold
+// 10pt column labels with normal 10pt rows under them, and paragraphs of free text. The same size always produces
+// the same document, so benchmark runs are comparable. Sections and questions carry the labels the uploader looks
+// for, so the pdfs can go through uploadNomination end to end.
+class SyntheticNominations {
+    enum Size {
+        SMALL(2, 2, 3),
+        MEDIUM(10, 10, 15),
+        LARGE(60, 60, 80),
+        HUGE(1000, 1000, 1000);
+
+        final int posts;
+        final int attachments;
+        final int paragraphs;
+
+        Size(int posts, int attachments, int paragraphs) {
+            this.posts = posts;
+            this.attachments = attachments;
+            this.paragraphs = paragraphs;
+        }
+    }
+
+    private static final String[] VOCABULARY = (
+            "education school trust academy pupils community volunteer governor years service leadership local " +
+            "national charity support young people teachers learning council committee chair founder outstanding " +
+            "contribution improvement standards award programme development district regional families children"
+    ).split(" ");
+
+    private static final float MARGIN = 50;
+    private static final float COLUMN_WIDTH = 125;
+    private static final float ROW_SPACING = 24; // more than the 20pt WordParams.continues treats as a line break
+    private static final float LINE_SPACING = 12;
+
+    static Path write(Size size, Path file) throws IOException {
+        Random random = new Random(size.ordinal());
+
+        try (PDDocument doc = new PDDocument()) {
+            PageWriter out = new PageWriter(doc);
+
+            out.heading(PDType1Font.HELVETICA, 12, "You have a new nomination submission");
+
+            out.heading(PDType1Font.HELVETICA_BOLD, 16, "Your details");
+            out.heading(PDType1Font.HELVETICA_BOLD, 14, "Details");
+            out.table(new String[]{"Title", "Forename", "Surname", "Email"},
+                    Collections.singletonList(new String[]{"Ms", "Jane", "Smith", "jane.smith@example.org"}));
+
+            out.heading(PDType1Font.HELVETICA_BOLD, 16, "Nominee details");
+            out.heading(PDType1Font.HELVETICA_BOLD, 14, "Details");
+            out.table(new String[]{"Title", "Forename", "Surname", "Town or City"},
+                    Collections.singletonList(new String[]{"Mr", "John", "Brown", "Leeds"}));
+            out.heading(PDType1Font.HELVETICA_BOLD, 14, "What is your nominee's date of birth?");
+            out.line(PDType1Font.HELVETICA, 10, MARGIN, "01/02/1960");
+            out.heading(PDType1Font.HELVETICA_BOLD, 14, "What is your relationship to the nominee?");
+            out.line(PDType1Font.HELVETICA, 10, MARGIN, "Colleague");
+
+            out.heading(PDType1Font.HELVETICA_BOLD, 16, "Nomination");
+            out.heading(PDType1Font.HELVETICA_BOLD, 14, "List the posts your nominee has excelled in");
+            out.table(new String[]{"Name", "Organisation", "Start Date to End Date"}, posts(size.posts, random));
+
+            out.heading(PDType1Font.HELVETICA_BOLD, 14, "Why should they be honoured?");
+            for (int i = 0; i < size.paragraphs; i++) {
+                for (int line = 0; line < 4; line++) out.line(PDType1Font.HELVETICA, 10, MARGIN, words(random, 12));
+                out.gap(ROW_SPACING);
+            }
+
+            out.heading(PDType1Font.HELVETICA_BOLD, 14, "Evidence of your nominee's contribution");
+            out.table(new String[]{"Attachment name", "Description"}, attachments(evidenceNames(size), random));
+            out.heading(PDType1Font.HELVETICA_BOLD, 14, "Letters of support");
+            out.table(new String[]{"Attachment name", "Description"}, attachments(letterNames(size), random));
+
+            out.close();
+            doc.save(file.toFile());
+        }
+        return file;
+    }
+
+    // pdf2dom style attributes like the ones WordParams.parse reads, for benchmarking the parser on its own
+    static String[] styles(int count) {
+        Random random = new Random(count);
+        String[] styles = new String[count];
+        for (int i = 0; i < count; i++) {
+            styles[i] = String.format("top:%.2fpt;left:%.2fpt;line-height:12.0pt;font-family:Helvetica;font-size:%s;font-weight:%s;width:%.3fpt;",
+                    20 + random.nextDouble() * 780, 50 + random.nextDouble() * 450,
+                    random.nextInt(10) == 0 ? "16.0pt" : "10.0pt", random.nextBoolean() ? "bold" : "normal",
+                    5 + random.nextDouble() * 60);
+        }
+        return styles;
+    }
+
+    // file names the evidence table of a nomination of this size lists
+    static List<String> evidenceNames(Size size) {
+        return names("evidence-", size.attachments - size.attachments / 2);
+    }
+
+    static List<String> letterNames(Size size) {
+        return names("letter-", size.attachments / 2);
+    }
+
+    private static List<String> names(String prefix, int count) {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < count; i++) names.add(prefix + i + ".pdf");
+        return names;
+    }
+
+    // the date range goes last, since it is the one value wider than a column
+    private static List<String[]> posts(int count, Random random) {
+        List<String[]> rows = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int from = 1980 + random.nextInt(30);
+            rows.add(new String[]{words(random, 1), words(random, 1), "Jan " + from + " to Mar " + (from + 1 + random.nextInt(10))});
+        }
+        return rows;
+    }
+
+    private static List<String[]> attachments(List<String> names, Random random) {
+        List<String[]> rows = new ArrayList<>();
+        for (String name : names) rows.add(new String[]{name, words(random, 3)});
+        return rows;
+    }
+
+    private static String words(Random random, int count) {
+        StringBuilder res = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) res.append(' ');
+            res.append(VOCABULARY[random.nextInt(VOCABULARY.length)]);
+        }
+        return res.toString();
+    }
+
+    // Lays text out top to bottom, starting a new page when the current one is full.
+    private static class PageWriter {
+        private final PDDocument doc;
+        private PDPageContentStream content = null;
+        private float y = 0;
+
+        PageWriter(PDDocument doc) {
+            this.doc = doc;
+        }
+
+        void heading(PDFont font, float size, String text) throws IOException {
+            gap(ROW_SPACING - LINE_SPACING);
+            line(font, size, MARGIN, text);
+            gap(ROW_SPACING - LINE_SPACING);
+        }
+
+        void table(String[] labels, List<String[]> rows) throws IOException {
+            row(PDType1Font.HELVETICA_BOLD, labels);
+            for (String[] row : rows) row(PDType1Font.HELVETICA, row);
+        }
+
+        private void row(PDFont font, String[] cells) throws IOException {
+            ensureRoom(ROW_SPACING);
+            for (int i = 0; i < cells.length; i++) show(font, 10, MARGIN + i * COLUMN_WIDTH, y, cells[i]);
+            y -= ROW_SPACING;
+        }
+
+        void line(PDFont font, float size, float x, String text) throws IOException {
+            ensureRoom(LINE_SPACING + size);
+            show(font, size, x, y, text);
+            y -= LINE_SPACING + Math.max(0, size - 10);
+        }
+
+        void gap(float height) {
+            y -= height;
+        }
+
+        private void show(PDFont font, float size, float x, float y, String text) throws IOException {
+            content.beginText();
+            content.setFont(font, size);
+            content.newLineAtOffset(x, y);
+            content.showText(text);
+            content.endText();
+        }
+
+        private void ensureRoom(float height) throws IOException {
+            if (content != null && y - height >= MARGIN) return;
+
+            close();
+            PDPage page = new PDPage(PDRectangle.A4);
+            doc.addPage(page);
+            content = new PDPageContentStream(doc, page);
+            y = PDRectangle.A4.getHeight() - MARGIN;
+        }
+
+        void close() throws IOException {
+            if (content != null) content.close();
+            content = null;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package uk.gov.education.honours;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class UploadJournalTest {
+    private Path directory;
+    private Path journalFile;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("journal");
+        journalFile = directory.resolve("uploads.journal");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void completedStepsAreReplayedAfterARestart() throws Exception {
+        UploadJournal journal = new UploadJournal(journalFile);
+        journal.recordFileUrl("aaa", "https://ucarecdn.com/group~2/nth/0/");
+        journal.recordSubmission("bbb", "https://kf-0000580.appspot.com/#/inbox/1");
+
+        UploadJournal restarted = new UploadJournal(journalFile);
+
+        assertEquals("https://ucarecdn.com/group~2/nth/0/", restarted.fileUrl("aaa"));
+        assertEquals("https://kf-0000580.appspot.com/#/inbox/1", restarted.submission("bbb"));
+        assertNull(restarted.fileUrl("bbb")); // steps are kept apart even for the same hash
+        assertNull(restarted.submission("aaa"));
+    }
+
+    @Test
+    public void aTruncatedLastLineIsIgnoredAndNotJoinedToTheNextOne() throws Exception {
+        new UploadJournal(journalFile).recordFileUrl("aaa", "https://ucarecdn.com/a/");
+        Files.write(journalFile, "file:bbb\thttps://ucare".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        UploadJournal journal = new UploadJournal(journalFile);
+        assertEquals("https://ucarecdn.com/a/", journal.fileUrl("aaa"));
+        assertNull(journal.fileUrl("bbb"));
+
+        journal.recordFileUrl("ccc", "https://ucarecdn.com/c/");
+        UploadJournal restarted = new UploadJournal(journalFile);
+        assertEquals("https://ucarecdn.com/a/", restarted.fileUrl("aaa"));
+        assertNull(restarted.fileUrl("bbb"));
+        assertEquals("https://ucarecdn.com/c/", restarted.fileUrl("ccc"));
+    }
+
+    @Test
+    public void contentHashFollowsTheContentNotTheFile() throws Exception {
+        Path file = directory.resolve("evidence.pdf");
+        Path copy = directory.resolve("copy.pdf");
+        Files.write(file, "first".getBytes(StandardCharsets.UTF_8));
+        Files.write(copy, "first".getBytes(StandardCharsets.UTF_8));
+
+        String before = ContentHash.sha256Hex(file);
+        assertEquals(64, before.length());
+        assertEquals(before, ContentHash.sha256Hex(copy));
+
+        Files.write(file, "second".getBytes(StandardCharsets.UTF_8));
+        assertNotEquals(before, ContentHash.sha256Hex(file));
+    }
+}
@@ -0,0 +1,95 @@
+package uk.gov.education.honours;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class WordParamsTest {
+    @Test
+    public void parsesPdfDomStyles() {
+        WordParams wp = WordParams.parse("top:136.19998pt;left:56.8pt;line-height:11.1pt;font-family:Arial;font-size:11.0pt;font-weight:bold;width:43.36pt;");
+
+        assertEquals(136.19998, wp.top, 0);
+        assertEquals(56.8, wp.left, 0);
+        assertEquals(11.0, wp.fontSize, 0);
+        assertEquals(43.36, wp.width, 0);
+        assertSame("bold", wp.fontWeight);
+        assertEquals(1, wp.getType());
+    }
+
+    @Test
+    public void matchesRegexParser() {
+        List<String> styles = Arrays.asList(
+                "",
+                "top:136.19998pt;left:56.8pt;line-height:11.1pt;font-family:Arial;font-size:11.0pt;font-weight:normal;width:43.36pt;",
+                "top:72.0pt;left:311.04pt;line-height:17.2pt;font-family:Arial,Bold;font-size:17.0pt;font-weight:bold;width:201.66pt;",
+                "margin-top:3pt;top:10pt;padding-left:2pt;left:5pt;border-width:1pt;width:7pt",
+                "top:-4.5pt;top:4.5pt;left:abc;left:.25pt;width:3.pt",
+                "font-size:12px;font-size:14.5pt;font-weight:;font-weight:600",
+                "font-weight:bold",
+                "font-weight: normal ;top:1.00000000000000000001pt",
+                "top:123456789012345678pt;left:0.000000000000000001pt;width:00012.500pt"
+        );
+        for (String style : styles) assertParity(style);
+    }
+
+    @Test
+    public void matchesRegexParserOnGeneratedStyles() {
+        Random random = new Random(42);
+        String[] keys = {"top", "left", "width", "font-size", "font-weight", "line-height", "margin-top", "font-family"};
+        String[] weights = {"normal", "bold", "bolder", "700"};
+
+        for (int n = 0; n < 10_000; n++) {
+            StringBuilder style = new StringBuilder();
+            int declarations = random.nextInt(8);
+            for (int i = 0; i < declarations; i++) {
+                String key = keys[random.nextInt(keys.length)];
+                style.append(key).append(':');
+                if (key.equals("font-weight")) style.append(weights[random.nextInt(weights.length)]);
+                else if (key.equals("font-family")) style.append("Arial");
+                else style.append(random.nextInt(1000)).append('.').append(random.nextInt(100000)).append(random.nextInt(10) == 0 ? "px" : "pt");
+                style.append(';');
+            }
+            assertParity(style.toString());
+        }
+    }
+
+    private static void assertParity(String style) {
+        WordParams expected = parseWithRegex(style);
+        WordParams actual = WordParams.parse(style);
+
+        assertEquals(style, expected.fontSize, actual.fontSize, 0);
+        assertEquals(style, expected.fontWeight, actual.fontWeight);
+        assertEquals(style, expected.top, actual.top, 0);
+        assertEquals(style, expected.left, actual.left, 0);
+        assertEquals(style, expected.width, actual.width, 0);
+    }
+
+    // the regex based parser WordParams.parse used to be
+    private static WordParams parseWithRegex(String style) {
+        WordParams res = new WordParams();
+        res.fontSize = Double.parseDouble(findOr(fontSizePattern, style, "0"));
+        res.fontWeight = findOr(fontWeightPattern, style, "normal");
+        res.top = Double.parseDouble(findOr(topPattern, style, "0"));
+        res.left = Double.parseDouble(findOr(leftPattern, style, "0"));
+        res.width = Double.parseDouble(findOr(widthPattern, style, "0"));
+        return res;
+    }
+
+    private static String findOr(Pattern p, String text, String valIfNotFound) {
+        Matcher matcher = p.matcher(text);
+        return matcher.find() ? matcher.group(1) : valIfNotFound;
+    }
+
+    private static Pattern fontSizePattern = Pattern.compile("font-size:([\\.0-9]+)pt");
+    private static Pattern fontWeightPattern = Pattern.compile("font-weight:([^;]+)");
+    private static Pattern topPattern = Pattern.compile("top:([\\.0-9]+)pt");
+    private static Pattern leftPattern = Pattern.compile("left:([\\.0-9]+)pt");
+    private static Pattern widthPattern = Pattern.compile("width:([\\.0-9]+)pt");
+}
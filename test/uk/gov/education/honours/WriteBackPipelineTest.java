@@ -0,0 +1,151 @@
+package uk.gov.education.honours;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class WriteBackPipelineTest {
+    private StubKissflowServer server;
+    private KissflowApi kissflow;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final Map<String, AtomicInteger> inFlightById = new ConcurrentHashMap<>();
+    private final AtomicInteger overlapsForOneId = new AtomicInteger();
+    private final List<String> calls = Collections.synchronizedList(new ArrayList<>());
+    private final List<Long> starts = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubKissflowServer(0);
+        server.faults.set(20, 0);
+        kissflow = new KissflowApi("key");
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void rowsForTheSameRecordAreWrittenInSheetOrderOneAtATime() throws Exception {
+        ImportReport report;
+        try (WriteBackPipeline pipeline = new WriteBackPipeline(4, 0)) {
+            pipeline.submit(2, "Hon1", () -> call("Hon1", "done", ImportReport.Status.PROGRESSED));
+            pipeline.submit(3, "Hon2", () -> call("Hon2", "update", ImportReport.Status.UPDATED));
+            pipeline.submit(4, "Hon1", () -> call("Hon1", "update", ImportReport.Status.UPDATED));
+            pipeline.submit(5, "Hon1", () -> call("Hon1", "update", ImportReport.Status.UPDATED));
+            report = pipeline.finish();
+        }
+
+        assertEquals(0, overlapsForOneId.get());
+        List<String> hon1 = new ArrayList<>();
+        for (String call : calls) if (call.startsWith("Hon1")) hon1.add(call);
+        assertEquals(3, hon1.size());
+        assertEquals("Hon1/done", hon1.get(0));
+        assertEquals(1, server.doneRequests.get());
+        assertEquals(3, server.updateRequests.get());
+        assertEquals(4, report.rows.size());
+    }
+
+    @Test
+    public void noMoreThanMaxInFlightAreOutstanding() throws Exception {
+        try (WriteBackPipeline pipeline = new WriteBackPipeline(2, 0)) {
+            for (int i = 0; i < 10; i++) {
+                String id = "Hon" + i;
+                pipeline.submit(i + 2, id, () -> call(id, "update", ImportReport.Status.UPDATED));
+            }
+            pipeline.finish();
+        }
+
+        assertEquals(10, server.updateRequests.get());
+        assertTrue(maxInFlight.get() <= 2);
+    }
+
+    @Test
+    public void requestsStartNoFasterThanTheRateLimit() throws Exception {
+        server.faults.set(0, 0);
+        long start = System.nanoTime();
+        try (WriteBackPipeline pipeline = new WriteBackPipeline(8, 20)) {
+            for (int i = 0; i < 6; i++) {
+                String id = "Hon" + i;
+                pipeline.submit(i + 2, id, () -> call(id, "update", ImportReport.Status.UPDATED));
+            }
+            pipeline.finish();
+        }
+
+        // six starts at 20 a second are at least 5 gaps of 50ms apart
+        assertTrue((System.nanoTime() - start) / 1_000_000 >= 240);
+    }
+
+    @Test
+    public void aRowHeldBackBehindItsRecordStillWaitsItsTurnForTheRateLimit() throws Exception {
+        server.faults.set(0, 0);
+        try (WriteBackPipeline pipeline = new WriteBackPipeline(8, 10)) {
+            pipeline.submit(2, "Hon1", () -> {
+                ImportReport.Status status = call("Hon1", "done", ImportReport.Status.PROGRESSED);
+                Thread.sleep(300); // so the next Hon1 row is let go while the other records' requests are starting
+                return status;
+            });
+            pipeline.submit(3, "Hon1", () -> call("Hon1", "update", ImportReport.Status.UPDATED));
+            for (int i = 2; i <= 4; i++) {
+                String id = "Hon" + i;
+                pipeline.submit(i + 2, id, () -> call(id, "update", ImportReport.Status.UPDATED));
+            }
+            pipeline.finish();
+        }
+
+        List<Long> sorted = new ArrayList<>(starts);
+        Collections.sort(sorted);
+        assertEquals(5, sorted.size());
+        // at 10 a second every start is 100ms after the one before; a little is allowed for timer slack
+        for (int i = 1; i < sorted.size(); i++) assertTrue((sorted.get(i) - sorted.get(i - 1)) / 1_000_000 >= 90);
+    }
+
+    @Test
+    public void everyRowIsReportedInSheetOrderWhateverItsOutcome() throws Exception {
+        server.faults.set(0, 0);
+        ImportReport report;
+        try (WriteBackPipeline pipeline = new WriteBackPipeline(4, 0)) {
+            pipeline.submit(5, "Hon5", () -> call("Hon5", "done", ImportReport.Status.PROGRESSED));
+            pipeline.skip(2, "Missing");
+            pipeline.submit(4, "Hon4", () -> call("Hon4", "nonsense", ImportReport.Status.UPDATED));
+            pipeline.fail(3, null, new NumberFormatException("For input string: \"x\""));
+            report = pipeline.finish();
+        }
+
+        assertEquals(4, report.rows.size());
+        assertEquals(2, report.rows.get(0).row);
+        assertEquals(ImportReport.Status.SKIPPED, report.rows.get(0).status);
+        assertEquals(ImportReport.Status.FAILED, report.rows.get(1).status);
+        assertTrue(report.rows.get(1).error instanceof NumberFormatException);
+        assertEquals(ImportReport.Status.FAILED, report.rows.get(2).status);
+        assertEquals(404, ((HttpException) report.rows.get(2).error).statusCode);
+        assertEquals(ImportReport.Status.PROGRESSED, report.rows.get(3).status);
+        assertEquals(2, report.count(ImportReport.Status.FAILED));
+    }
+
+    private ImportReport.Status call(String id, String action, ImportReport.Status status) throws Exception {
+        AtomicInteger forId = inFlightById.computeIfAbsent(id, x -> new AtomicInteger());
+        if (forId.incrementAndGet() > 1) overlapsForOneId.incrementAndGet();
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        try {
+            calls.add(id + "/" + action);
+            starts.add(System.nanoTime());
+            kissflow.callJsonEndpoint(server.baseUrl() + "/api/1/Honours/" + id + "/" + action, "Round=2019+NY",
+                    action.equals("done") ? "POST" : "PUT", "application/x-www-form-urlencoded");
+            return status;
+        } finally {
+            inFlight.decrementAndGet();
+            forId.decrementAndGet();
+        }
+    }
+}